@@ -8,10 +8,17 @@ import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.spi.StringArrayOptionHandler;
 
+import javax.management.JMException;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
@@ -23,7 +30,12 @@ import java.util.Set;
 public class App {
 
     private static final Logger LOGGER = LogManager.getLogger(App.class);
-    private static final String EDGE_LABEL_REGEX = ":";
+    private static final int CHANGE_BUFFER_CAPACITY = 4096;
+
+    /**
+     * Time a follower has to accept a batch of changes before its connection is closed.
+     */
+    private static final long PUBLISH_WRITE_TIMEOUT_MILLIS = 10000;
 
     private final List<StringDocument> documents = new LinkedList<>();
 
@@ -73,6 +85,20 @@ public class App {
         }
     }
 
+    /**
+     * Adds a document to the pool and exports its metrics.
+     * @param document Document to add.
+     */
+    private void addDocument(StringDocument document) {
+        documents.add(document);
+
+        try {
+            DocumentMetrics.register(document);
+        } catch (JMException e) {
+            LOGGER.warn("Metrics of document " + document.getName() + " could not be exported", e);
+        }
+    }
+
     public static void main(String[] args) {
         new App().run();
     }
@@ -98,7 +124,7 @@ public class App {
         private String openDocumentName;
 
         /**
-         * Arguments to read documents from files.
+         * Arguments to read documents from files. If a path is a directory it will be read as partitioned document.
          */
         @Option(name = "-r", aliases = {"--read"}, handler = StringArrayOptionHandler.class)
         private String[] read;
@@ -109,25 +135,170 @@ public class App {
         @Option(name = "-w", aliases = {"--write"}, handler = StringArrayOptionHandler.class)
         private String[] write;
 
+        /**
+         * Arguments to write documents to directories, partitioned by edge type.
+         */
+        @Option(name = "-wp", aliases = {"--write-partitioned"}, handler = StringArrayOptionHandler.class)
+        private String[] writePartitioned;
+
+        /**
+         * Arguments to compare two documents.
+         */
+        @Option(name = "-df", aliases = {"--diff"}, handler = StringArrayOptionHandler.class)
+        private String[] diff;
+
+        /**
+         * Arguments to merge the second document into the first one.
+         */
+        @Option(name = "-m", aliases = {"--merge"}, handler = StringArrayOptionHandler.class)
+        private String[] merge;
+
+        /**
+         * Policy on how to resolve differing labels when merging.
+         */
+        @Option(name = "-cp", aliases = {"--conflict-policy"})
+        private DocumentDiff.ConflictPolicy conflictPolicy = DocumentDiff.ConflictPolicy.OURS;
+
+        /**
+         * Arguments to publish all changes of documents to followers.
+         */
+        @Option(name = "-p", aliases = {"--publish"}, handler = StringArrayOptionHandler.class)
+        private String[] publish;
+
+        /**
+         * Policy on what to do when a follower falls behind.
+         */
+        @Option(name = "-pp", aliases = {"--publish-policy"})
+        private ChangeFeed.OverflowPolicy publishPolicy = ChangeFeed.OverflowPolicy.DROP;
+
+        /**
+         * Arguments to create read-only documents that follow a published document. Ports are bound to the loopback
+         * address unless given as {@code ADDRESS:PORT}.
+         */
+        @Option(name = "-f", aliases = {"--follow"}, handler = StringArrayOptionHandler.class)
+        private String[] follow;
+
+        /**
+         * Argument to print a memory estimate of all documents.
+         */
+        @Option(name = "-mem", aliases = {"--memory"})
+        private boolean doPrintMemory = false;
+
+        /**
+         * Arguments to limit the memory documents may retain.
+         */
+        @Option(name = "-mc", aliases = {"--memory-cap"}, handler = StringArrayOptionHandler.class)
+        private String[] memoryCaps;
+
         @Override
         public void run() {
             if (this.addDocumentName != null) {
                 StringDocument newDocument = new StringDocument(this.addDocumentName);
-                documents.add(newDocument);
+                addDocument(newDocument);
             }
 
             if (read != null) {
                 for (int i = 0; i + 1 < this.read.length; i += 2) {
                     try {
                         StringDocument newDocument = new StringDocument(this.read[i]);
-                        newDocument.read(this.read[i + 1]);
-                        documents.add(newDocument);
+                        if (Files.isDirectory(Paths.get(this.read[i + 1]))) {
+                            newDocument.readPartitioned(this.read[i + 1]);
+                        } else {
+                            newDocument.read(this.read[i + 1]);
+                        }
+                        addDocument(newDocument);
                     } catch (IOException | GraphParseException e) {
                         LOGGER.error(e.getMessage(), e);
                     }
                 }
             }
 
+            if (this.diff != null) {
+                for (int i = 0; i + 1 < this.diff.length; i += 2) {
+                    StringDocument base = findDocument(this.diff[i]),
+                            other = findDocument(this.diff[i + 1]);
+                    DocumentDiff<String> documentDiff;
+                    synchronized (base) {
+                        synchronized (other) {
+                            documentDiff = DocumentDiff.between(base, other);
+                        }
+                    }
+                    LOGGER.info(new StringBuilder()
+                            .append("Changes from ")
+                            .append(this.diff[i])
+                            .append(" to ")
+                            .append(this.diff[i + 1])
+                            .append(':')
+                            .append(documentDiff));
+                }
+            }
+
+            if (this.merge != null) {
+                for (int i = 0; i + 1 < this.merge.length; i += 2) {
+                    StringDocument target = findDocument(this.merge[i]),
+                            source = findDocument(this.merge[i + 1]);
+                    synchronized (target) {
+                        synchronized (source) {
+                            target.merge(DocumentDiff.between(target, source), this.conflictPolicy);
+                        }
+                    }
+                }
+            }
+
+            if (this.follow != null) {
+                for (int i = 0; i + 1 < this.follow.length; i += 2) {
+                    StringDocument replica = new StringDocument(this.follow[i]);
+                    InetSocketAddress address = bindAddress(this.follow[i + 1]);
+                    replica.setReadOnly(true);
+                    addDocument(replica);
+
+                    Thread followThread = new Thread(() -> {
+                        try (ServerSocket serverSocket = new ServerSocket(address.getPort(), 1, address.getAddress());
+                             Socket socket = serverSocket.accept()) {
+                            new ChangeStreamReader(replica, socket.getInputStream()).run();
+                        } catch (IOException e) {
+                            LOGGER.error(e.getMessage(), e);
+                        }
+                    }, "follow-" + replica.getName());
+                    followThread.setDaemon(true);
+                    followThread.start();
+                }
+            }
+
+            if (this.publish != null) {
+                for (int i = 0; i + 2 < this.publish.length; i += 3) {
+                    StringDocument publishDocument = findDocument(this.publish[i]);
+                    Socket socket = null;
+                    try {
+                        socket = new Socket(this.publish[i + 1], Integer.parseInt(this.publish[i + 2]));
+                        // Closing the writer when its subscription is closed closes the socket as well.
+                        ChangeStreamWriter writer = new ChangeStreamWriter(socket, PUBLISH_WRITE_TIMEOUT_MILLIS);
+                        synchronized (publishDocument) {
+                            publishDocument.subscribe(writer, CHANGE_BUFFER_CAPACITY, this.publishPolicy, true);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.error(e.getMessage(), e);
+                        if (socket != null) {
+                            try {
+                                socket.close();
+                            } catch (IOException closeException) {
+                                LOGGER.error(closeException.getMessage(), closeException);
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (this.memoryCaps != null) {
+                for (int i = 0; i + 1 < this.memoryCaps.length; i += 2) {
+                    findDocument(this.memoryCaps[i]).setMemoryCap(Long.parseLong(this.memoryCaps[i + 1]));
+                }
+            }
+
+            if (this.doPrintMemory) {
+                this.printMemory();
+            }
+
             if (this.openDocumentName != null) {
                 Optional<StringDocument> documentOptional = documents.stream()
                         .filter(doc -> doc.getName().equals(this.openDocumentName))
@@ -154,12 +325,82 @@ public class App {
                     }
 
                     try {
-                        writeDocument.write(this.write[index + 1]);
+                        synchronized (writeDocument) {
+                            writeDocument.write(this.write[index + 1]);
+                        }
                     } catch (IOException e) {
                         LOGGER.error(e.getMessage(), e);
                     }
                 }
             }
+
+            if (writePartitioned != null) {
+                for (int i = 0; i + 1 < this.writePartitioned.length; i += 2) {
+                    final int index = i;
+                    StringDocument writeDocument = documents.stream()
+                            .filter(document -> document.getName().equals(this.writePartitioned[index]))
+                            .findFirst()
+                            .orElse(null);
+
+                    if (writeDocument == null) {
+                        throw new IllegalArgumentException("no document of given name exists");
+                    }
+
+                    try {
+                        synchronized (writeDocument) {
+                            writeDocument.writePartitioned(this.writePartitioned[index + 1]);
+                        }
+                    } catch (IOException e) {
+                        LOGGER.error(e.getMessage(), e);
+                    }
+                }
+            }
+        }
+
+        private void printMemory() {
+            StringBuilder builder = new StringBuilder()
+                    .append("Estimated memory usage:");
+            documents
+                    .forEach(document -> {
+                        MemoryReport report;
+                        synchronized (document) {
+                            report = document.getMemoryReport();
+                        }
+                        builder
+                                .append('\n')
+                                .append(document.getName())
+                                .append(": ")
+                                .append(report);
+                        if (document.getMemoryCap() > 0) {
+                            builder
+                                    .append("\n  cap: ")
+                                    .append(document.getMemoryCap());
+                        }
+                    });
+
+            LOGGER.info(builder);
+        }
+
+        private StringDocument findDocument(String name) throws IllegalArgumentException {
+            return documents.stream()
+                    .filter(document -> document.getName().equals(name))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("no document of given name exists"));
+        }
+
+        /**
+         * Parses an address to follow on.
+         * @param argument Either a port, which is bound to the loopback address, or {@code ADDRESS:PORT}.
+         * @return The address.
+         * @throws IllegalArgumentException Thrown if the port is not a number.
+         */
+        private InetSocketAddress bindAddress(String argument) throws IllegalArgumentException {
+            int separator = argument.lastIndexOf(':');
+            if (separator < 0) {
+                return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(argument));
+            }
+
+            return new InetSocketAddress(argument.substring(0, separator), Integer.parseInt(argument.substring(separator + 1)));
         }
     }
 
@@ -219,59 +460,24 @@ public class App {
 
         @Override
         public void run() {
-            if (this.removeNodes != null) {
-                for (String nodeId: this.removeNodes) {
-                    activeDocument.removeNode(nodeId);
-                }
-            }
-
-            if (this.addNodes != null) {
-                for (int i = 0; i + 1 < this.addNodes.length; i += 2) {
-                    activeDocument.addNode(this.addNodes[i], this.addNodes[i + 1]);
-                }
-            }
-
-            if (this.unlink != null) {
-                for (int i = 0; i + 2 < this.unlink.length; i += 3) {
-                    activeDocument.unpredicate(this.unlink[i], this.unlink[i + 1], this.unlink[i + 2]);
-                }
-            }
-
-            if (this.link != null) {
-                for (int i = 0; i + 2 < this.link.length; i += 3) {
-                    String[] split = this.link[i + 1].split(EDGE_LABEL_REGEX);
-                    String metadata = "";
-                    if (split.length > 1) {
-                        metadata = split[1];
-                    }
-
-                    activeDocument.predicate(this.link[i], split[0], this.link[i + 2], metadata);
-                }
-            }
-
-            if (this.nodeLabels != null) {
-                for (int i = 0; i + 1 < this.nodeLabels.length; i += 2) {
-                    activeDocument.setNodeLabel(this.nodeLabels[i], this.nodeLabels[i + 1]);
-                }
-            }
-
-            if (this.edgeLabels != null) {
-                for (int i = 0; i + 3 < this.edgeLabels.length; i += 4) {
-                    activeDocument.setEdgeLabel(this.edgeLabels[i], this.edgeLabels[i + 1], this.edgeLabels[i + 2], this.edgeLabels[i + 3]);
-                }
-            }
-
-            if (this.hidePredicates != null) {
-                for (String predicate: this.hidePredicates) {
-                    activeDocument.hidePredicate(predicate);
-                }
+            // Replicas are modified by their reader thread.
+            synchronized (activeDocument) {
+                runCommands();
             }
+        }
 
-            if (this.displayPredicates != null) {
-                for (String predicate: this.displayPredicates) {
-                    activeDocument.showPredicate(predicate);
-                }
-            }
+        private void runCommands() {
+            CommandPipeline pipeline = new CommandPipeline(activeDocument)
+                    .removeNodes(this.removeNodes)
+                    .addNodes(this.addNodes)
+                    .unlink(this.unlink)
+                    .link(this.link)
+                    .labelNodes(this.nodeLabels)
+                    .labelEdges(this.edgeLabels)
+                    .hidePredicates(this.hidePredicates)
+                    .displayPredicates(this.displayPredicates);
+            pipeline.validate();
+            pipeline.execute();
 
             if (this.doListEdgeTypes) {
                 this.printEdgeTypes();
@@ -0,0 +1,280 @@
+package de.felixlinker.predicater;
+
+import org.graphstream.stream.Sink;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single change of a {@link Document}'s graph as published by a {@link ChangeFeed}.
+ * Events are numbered consecutively per document, so subscribers can detect events they missed.
+ */
+public class ChangeEvent {
+
+    /**
+     * Longest string that will be read, to keep a corrupt or hostile stream from allocating arbitrary amounts of memory.
+     */
+    private static final int MAX_STRING_BYTES = 1 << 24;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_STRING = 1;
+    private static final byte VALUE_BOOLEAN = 2;
+    private static final byte VALUE_INTEGER = 3;
+    private static final byte VALUE_LONG = 4;
+    private static final byte VALUE_DOUBLE = 5;
+
+    /**
+     * Kinds of changes.
+     */
+    public enum Type {
+        NODE_ADDED,
+        NODE_REMOVED,
+        EDGE_ADDED,
+        EDGE_REMOVED,
+        GRAPH_CLEARED,
+        GRAPH_ATTRIBUTE_SET,
+        GRAPH_ATTRIBUTE_REMOVED,
+        NODE_ATTRIBUTE_SET,
+        NODE_ATTRIBUTE_REMOVED,
+        EDGE_ATTRIBUTE_SET,
+        EDGE_ATTRIBUTE_REMOVED
+    }
+
+    private final Type type;
+
+    private final long sequence;
+
+    private final boolean snapshot;
+
+    private final String elementId;
+
+    private final String fromNodeId;
+
+    private final String toNodeId;
+
+    private final boolean directed;
+
+    private final String attribute;
+
+    private final Object value;
+
+    /**
+     * Creates an event.
+     * @param type Kind of the change.
+     * @param sequence Sequence number of the change. Snapshot events carry the number of the last change they include.
+     * @param snapshot Whether the event describes existing state rather than a change.
+     * @param elementId Id of the changed node or edge, {@code null} for graph changes.
+     * @param fromNodeId Node an added edge starts, {@code null} otherwise.
+     * @param toNodeId Node an added edge ends, {@code null} otherwise.
+     * @param directed Whether an added edge is directed.
+     * @param attribute Name of the changed attribute, {@code null} for element changes.
+     * @param value New value of the changed attribute, {@code null} otherwise.
+     */
+    ChangeEvent(Type type, long sequence, boolean snapshot, String elementId, String fromNodeId, String toNodeId,
+                boolean directed, String attribute, Object value) {
+        this.type = type;
+        this.sequence = sequence;
+        this.snapshot = snapshot;
+        this.elementId = elementId;
+        this.fromNodeId = fromNodeId;
+        this.toNodeId = toNodeId;
+        this.directed = directed;
+        this.attribute = attribute;
+        this.value = value;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    public String getElementId() {
+        return elementId;
+    }
+
+    public String getFromNodeId() {
+        return fromNodeId;
+    }
+
+    public String getToNodeId() {
+        return toNodeId;
+    }
+
+    public boolean isDirected() {
+        return directed;
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * Replays this event on a sink, e.g. a graph.
+     * @param sink Sink to replay on.
+     * @param sourceId Source id to report to the sink.
+     * @param timeId Time id to report to the sink. Graphs ignore events whose time id is not increasing per source id.
+     */
+    public void replay(Sink sink, String sourceId, long timeId) {
+        switch (this.type) {
+            case NODE_ADDED:
+                sink.nodeAdded(sourceId, timeId, this.elementId);
+                break;
+            case NODE_REMOVED:
+                sink.nodeRemoved(sourceId, timeId, this.elementId);
+                break;
+            case EDGE_ADDED:
+                sink.edgeAdded(sourceId, timeId, this.elementId, this.fromNodeId, this.toNodeId, this.directed);
+                break;
+            case EDGE_REMOVED:
+                sink.edgeRemoved(sourceId, timeId, this.elementId);
+                break;
+            case GRAPH_CLEARED:
+                sink.graphCleared(sourceId, timeId);
+                break;
+            case GRAPH_ATTRIBUTE_SET:
+                sink.graphAttributeAdded(sourceId, timeId, this.attribute, this.value);
+                break;
+            case GRAPH_ATTRIBUTE_REMOVED:
+                sink.graphAttributeRemoved(sourceId, timeId, this.attribute);
+                break;
+            case NODE_ATTRIBUTE_SET:
+                sink.nodeAttributeAdded(sourceId, timeId, this.elementId, this.attribute, this.value);
+                break;
+            case NODE_ATTRIBUTE_REMOVED:
+                sink.nodeAttributeRemoved(sourceId, timeId, this.elementId, this.attribute);
+                break;
+            case EDGE_ATTRIBUTE_SET:
+                sink.edgeAttributeAdded(sourceId, timeId, this.elementId, this.attribute, this.value);
+                break;
+            case EDGE_ATTRIBUTE_REMOVED:
+                sink.edgeAttributeRemoved(sourceId, timeId, this.elementId, this.attribute);
+                break;
+        }
+    }
+
+    /**
+     * Writes the event's fields. Attribute values other than strings, booleans and numbers are written as strings.
+     * @param out Output to write to.
+     * @throws IOException Thrown if the output could not be written.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeByte(this.type.ordinal());
+        out.writeLong(this.sequence);
+        out.writeBoolean(this.snapshot);
+        writeString(out, this.elementId);
+        writeString(out, this.fromNodeId);
+        writeString(out, this.toNodeId);
+        out.writeBoolean(this.directed);
+        writeString(out, this.attribute);
+
+        if (this.value == null) {
+            out.writeByte(VALUE_NULL);
+        } else if (this.value instanceof Boolean) {
+            out.writeByte(VALUE_BOOLEAN);
+            out.writeBoolean((Boolean) this.value);
+        } else if (this.value instanceof Integer) {
+            out.writeByte(VALUE_INTEGER);
+            out.writeInt((Integer) this.value);
+        } else if (this.value instanceof Long) {
+            out.writeByte(VALUE_LONG);
+            out.writeLong((Long) this.value);
+        } else if (this.value instanceof Number) {
+            out.writeByte(VALUE_DOUBLE);
+            out.writeDouble(((Number) this.value).doubleValue());
+        } else {
+            out.writeByte(VALUE_STRING);
+            writeString(out, this.value.toString());
+        }
+    }
+
+    /**
+     * Reads an event written by {@link #writeTo(DataOutput)}.
+     * @param in Input to read from.
+     * @return The event.
+     * @throws IOException Thrown if the input could not be read or is malformed.
+     */
+    static ChangeEvent readFrom(DataInput in) throws IOException {
+        int typeIndex = in.readUnsignedByte();
+        if (typeIndex >= Type.values().length) {
+            throw new IOException("Unknown change type " + typeIndex);
+        }
+
+        Type type = Type.values()[typeIndex];
+        long sequence = in.readLong();
+        boolean snapshot = in.readBoolean();
+        String elementId = readString(in),
+                fromNodeId = readString(in),
+                toNodeId = readString(in);
+        boolean directed = in.readBoolean();
+        String attribute = readString(in);
+
+        Object value;
+        byte valueType = in.readByte();
+        switch (valueType) {
+            case VALUE_NULL:
+                value = null;
+                break;
+            case VALUE_STRING:
+                value = readString(in);
+                break;
+            case VALUE_BOOLEAN:
+                value = in.readBoolean();
+                break;
+            case VALUE_INTEGER:
+                value = in.readInt();
+                break;
+            case VALUE_LONG:
+                value = in.readLong();
+                break;
+            case VALUE_DOUBLE:
+                value = in.readDouble();
+                break;
+            default:
+                throw new IOException("Unknown value type " + valueType);
+        }
+
+        return new ChangeEvent(type, sequence, snapshot, elementId, fromNodeId, toNodeId, directed, attribute, value);
+    }
+
+    private static void writeString(DataOutput out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        } else if (length > MAX_STRING_BYTES) {
+            throw new IOException("String of " + length + " bytes exceeds the limit of " + MAX_STRING_BYTES + " bytes");
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return sequence + " " + type + " " + elementId + (attribute == null ? "" : " " + attribute + "=" + value);
+    }
+}
@@ -0,0 +1,305 @@
+package de.felixlinker.predicater;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Element;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+import org.graphstream.stream.Sink;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes all changes of a graph to subscribers. Each subscription buffers events in a bounded ring buffer that is
+ * drained in batches by the subscription's own thread, so the thread modifying the graph only has to enqueue events.
+ */
+public class ChangeFeed implements Sink {
+
+    private static final Logger LOGGER = LogManager.getLogger(ChangeFeed.class);
+
+    /**
+     * Policies on what to do when a subscription's buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The modifying thread waits until the subscriber caught up.
+         */
+        BLOCK,
+        /**
+         * The event is dropped for this subscriber. Subscribers can detect this by a gap in the sequence numbers.
+         */
+        DROP
+    }
+
+    private static final long BLOCK_POLL_MILLIS = 100;
+
+    private final Graph graph;
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Sequence number of the last published event.
+     */
+    private long sequence = 0;
+
+    /**
+     * Creates a feed. It has to be added as sink to the graph to publish its changes.
+     * @param graph Graph to take snapshots from.
+     */
+    ChangeFeed(Graph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Subscribes to all changes from now on. Must be invoked on the thread modifying the graph if a snapshot is requested.
+     * Edges that are read lazily from a partitioned document (see {@link Document#readPartitioned(String)}) are
+     * published as added edges, as they have not been part of the graph before.
+     * @param listener Listener to receive the changes.
+     * @param capacity Number of events to buffer.
+     * @param policy What to do when the buffer is full. Snapshot events will never be dropped.
+     * @param snapshot Whether the listener shall first receive events describing the graph's current state.
+     * @return The subscription.
+     * @throws IllegalArgumentException Thrown if the capacity is not positive.
+     */
+    public Subscription subscribe(ChangeListener listener, int capacity, OverflowPolicy policy, boolean snapshot) throws IllegalArgumentException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive.");
+        }
+
+        Subscription subscription = new Subscription(listener, capacity, policy);
+        subscription.thread.start();
+
+        if (snapshot) {
+            for (String attribute: this.graph.getAttributeKeySet()) {
+                subscription.enqueue(snapshotEvent(ChangeEvent.Type.GRAPH_ATTRIBUTE_SET, null, attribute, this.graph));
+            }
+            for (Node node: this.graph.getEachNode()) {
+                subscription.enqueue(snapshotEvent(ChangeEvent.Type.NODE_ADDED, node.getId(), null, null));
+                for (String attribute: node.getAttributeKeySet()) {
+                    subscription.enqueue(snapshotEvent(ChangeEvent.Type.NODE_ATTRIBUTE_SET, node.getId(), attribute, node));
+                }
+            }
+            for (Edge edge: this.graph.getEachEdge()) {
+                subscription.enqueue(new ChangeEvent(ChangeEvent.Type.EDGE_ADDED, this.sequence, true, edge.getId(),
+                        edge.getSourceNode().getId(), edge.getTargetNode().getId(), edge.isDirected(), null, null));
+                for (String attribute: edge.getAttributeKeySet()) {
+                    subscription.enqueue(snapshotEvent(ChangeEvent.Type.EDGE_ATTRIBUTE_SET, edge.getId(), attribute, edge));
+                }
+            }
+        }
+
+        this.subscriptions.add(subscription);
+        return subscription;
+    }
+
+    private ChangeEvent snapshotEvent(ChangeEvent.Type type, String elementId, String attribute, Element element) {
+        Object value = attribute == null ? null : element.getAttribute(attribute, Object.class);
+        return new ChangeEvent(type, this.sequence, true, elementId, null, null, false, attribute, value);
+    }
+
+    private void publish(ChangeEvent.Type type, String elementId, String attribute, Object value) {
+        publish(type, elementId, null, null, false, attribute, value);
+    }
+
+    private void publish(ChangeEvent.Type type, String elementId, String fromNodeId, String toNodeId, boolean directed, String attribute, Object value) {
+        if (this.subscriptions.isEmpty()) {
+            this.sequence++;
+            return;
+        }
+
+        ChangeEvent event = new ChangeEvent(type, ++this.sequence, false, elementId, fromNodeId, toNodeId, directed, attribute, value);
+        for (Subscription subscription: this.subscriptions) {
+            subscription.enqueue(event);
+        }
+    }
+
+    @Override
+    public void nodeAdded(String sourceId, long timeId, String nodeId) {
+        publish(ChangeEvent.Type.NODE_ADDED, nodeId, null, null);
+    }
+
+    @Override
+    public void nodeRemoved(String sourceId, long timeId, String nodeId) {
+        publish(ChangeEvent.Type.NODE_REMOVED, nodeId, null, null);
+    }
+
+    @Override
+    public void edgeAdded(String sourceId, long timeId, String edgeId, String fromNodeId, String toNodeId, boolean directed) {
+        publish(ChangeEvent.Type.EDGE_ADDED, edgeId, fromNodeId, toNodeId, directed, null, null);
+    }
+
+    @Override
+    public void edgeRemoved(String sourceId, long timeId, String edgeId) {
+        publish(ChangeEvent.Type.EDGE_REMOVED, edgeId, null, null);
+    }
+
+    @Override
+    public void graphCleared(String sourceId, long timeId) {
+        publish(ChangeEvent.Type.GRAPH_CLEARED, null, null, null);
+    }
+
+    @Override
+    public void stepBegins(String sourceId, long timeId, double step) {}
+
+    @Override
+    public void graphAttributeAdded(String sourceId, long timeId, String attribute, Object value) {
+        publish(ChangeEvent.Type.GRAPH_ATTRIBUTE_SET, null, attribute, value);
+    }
+
+    @Override
+    public void graphAttributeChanged(String sourceId, long timeId, String attribute, Object oldValue, Object newValue) {
+        publish(ChangeEvent.Type.GRAPH_ATTRIBUTE_SET, null, attribute, newValue);
+    }
+
+    @Override
+    public void graphAttributeRemoved(String sourceId, long timeId, String attribute) {
+        publish(ChangeEvent.Type.GRAPH_ATTRIBUTE_REMOVED, null, attribute, null);
+    }
+
+    @Override
+    public void nodeAttributeAdded(String sourceId, long timeId, String nodeId, String attribute, Object value) {
+        publish(ChangeEvent.Type.NODE_ATTRIBUTE_SET, nodeId, attribute, value);
+    }
+
+    @Override
+    public void nodeAttributeChanged(String sourceId, long timeId, String nodeId, String attribute, Object oldValue, Object newValue) {
+        publish(ChangeEvent.Type.NODE_ATTRIBUTE_SET, nodeId, attribute, newValue);
+    }
+
+    @Override
+    public void nodeAttributeRemoved(String sourceId, long timeId, String nodeId, String attribute) {
+        publish(ChangeEvent.Type.NODE_ATTRIBUTE_REMOVED, nodeId, attribute, null);
+    }
+
+    @Override
+    public void edgeAttributeAdded(String sourceId, long timeId, String edgeId, String attribute, Object value) {
+        publish(ChangeEvent.Type.EDGE_ATTRIBUTE_SET, edgeId, attribute, value);
+    }
+
+    @Override
+    public void edgeAttributeChanged(String sourceId, long timeId, String edgeId, String attribute, Object oldValue, Object newValue) {
+        publish(ChangeEvent.Type.EDGE_ATTRIBUTE_SET, edgeId, attribute, newValue);
+    }
+
+    @Override
+    public void edgeAttributeRemoved(String sourceId, long timeId, String edgeId, String attribute) {
+        publish(ChangeEvent.Type.EDGE_ATTRIBUTE_REMOVED, edgeId, attribute, null);
+    }
+
+    /**
+     * A subscription to a {@link ChangeFeed}. It delivers events on its own daemon thread until it is closed.
+     */
+    public class Subscription implements AutoCloseable {
+
+        private final ChangeListener listener;
+
+        private final BlockingQueue<ChangeEvent> buffer;
+
+        private final int capacity;
+
+        private final OverflowPolicy policy;
+
+        private final Thread thread;
+
+        private final AtomicLong droppedEvents = new AtomicLong();
+
+        private volatile boolean closed = false;
+
+        private Subscription(ChangeListener listener, int capacity, OverflowPolicy policy) {
+            this.listener = listener;
+            this.buffer = new ArrayBlockingQueue<>(capacity);
+            this.capacity = capacity;
+            this.policy = policy;
+            this.thread = new Thread(this::dispatch, "change-feed-" + graph.getId());
+            this.thread.setDaemon(true);
+        }
+
+        private void enqueue(ChangeEvent event) {
+            if (this.closed) {
+                return;
+            }
+
+            // Snapshot events carry no distinct sequence numbers, so dropping them would go unnoticed.
+            if (this.policy == OverflowPolicy.DROP && !event.isSnapshot()) {
+                if (!this.buffer.offer(event)) {
+                    this.droppedEvents.incrementAndGet();
+                }
+                return;
+            }
+
+            try {
+                // Poll so the modifying thread won't wait forever on a subscription that has been closed meanwhile.
+                while (!this.buffer.offer(event, BLOCK_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (this.closed) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.droppedEvents.incrementAndGet();
+            }
+        }
+
+        private void dispatch() {
+            try {
+                while (!this.closed) {
+                    List<ChangeEvent> batch = new ArrayList<>();
+                    batch.add(this.buffer.take());
+                    this.buffer.drainTo(batch, this.capacity - 1);
+                    this.listener.onChanges(Collections.unmodifiableList(batch));
+                }
+            } catch (InterruptedException e) {
+                // Closed.
+            } catch (RuntimeException e) {
+                LOGGER.error(e.getMessage(), e);
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Returns the number of events that were dropped because the buffer was full.
+         * @return Number of dropped events.
+         */
+        public long getDroppedEvents() {
+            return this.droppedEvents.get();
+        }
+
+        /**
+         * Checks whether the subscription has been closed, either explicitly or because its listener failed.
+         * @return {@code true} if no more events will be delivered.
+         */
+        public boolean isClosed() {
+            return this.closed;
+        }
+
+        /**
+         * Stops delivering events and notifies the listener. Events that are still buffered will be discarded.
+         */
+        @Override
+        public synchronized void close() {
+            if (this.closed) {
+                return;
+            }
+
+            this.closed = true;
+            subscriptions.remove(this);
+            this.buffer.clear();
+            this.thread.interrupt();
+
+            try {
+                this.listener.onClose();
+            } catch (RuntimeException e) {
+                LOGGER.error(e.getMessage(), e);
+            }
+        }
+    }
+}
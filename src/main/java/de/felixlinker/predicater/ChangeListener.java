@@ -0,0 +1,22 @@
+package de.felixlinker.predicater;
+
+import java.util.List;
+
+/**
+ * Receives batches of changes from a {@link ChangeFeed}.
+ */
+@FunctionalInterface
+public interface ChangeListener {
+
+    /**
+     * Invoked on the subscription's own thread, never on the thread modifying the document.
+     * @param events Changes in order of their sequence numbers.
+     */
+    void onChanges(List<ChangeEvent> events);
+
+    /**
+     * Invoked once the subscription has been closed, either explicitly or because {@link #onChanges(List)} failed.
+     * No more changes will be delivered afterwards.
+     */
+    default void onClose() {}
+}
@@ -0,0 +1,77 @@
+package de.felixlinker.predicater;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replays changes written by a {@link ChangeStreamWriter} on a document, which makes the document a read-only replica
+ * of the document the changes were published by.
+ * Reading stops at the end of the stream, on malformed input or as soon as a gap in the sequence numbers shows that
+ * changes were lost.
+ */
+public class ChangeStreamReader implements Runnable {
+
+    private static final Logger LOGGER = LogManager.getLogger(ChangeStreamReader.class);
+
+    private final Document<?> replica;
+
+    private final InputStream in;
+
+    private final String sourceId;
+
+    /**
+     * Time id of the last replayed event, see {@link ChangeEvent#replay(org.graphstream.stream.Sink, String, long)}.
+     */
+    private long timeId = 0;
+
+    /**
+     * Sequence number of the last replayed event, negative if none has been replayed yet.
+     */
+    private long sequence = -1;
+
+    /**
+     * Creates a reader and marks the document as read-only.
+     * @param replica Document to replay the changes on.
+     * @param in Stream to read from.
+     */
+    public ChangeStreamReader(Document<?> replica, InputStream in) {
+        this.replica = replica;
+        this.in = in;
+        this.sourceId = "replica-" + replica.getName();
+        replica.setReadOnly(true);
+    }
+
+    @Override
+    public void run() {
+        try (DataInputStream dataIn = new DataInputStream(new BufferedInputStream(this.in))) {
+            if (dataIn.readInt() != ChangeStreamWriter.MAGIC || dataIn.readInt() != ChangeStreamWriter.VERSION) {
+                LOGGER.error("Replica " + this.replica.getName() + " received no change stream of a supported version");
+                return;
+            }
+
+            while (true) {
+                ChangeEvent event = ChangeEvent.readFrom(dataIn);
+
+                if (!event.isSnapshot() && this.sequence >= 0 && event.getSequence() != this.sequence + 1) {
+                    LOGGER.error("Changes " + (this.sequence + 1) + " to " + (event.getSequence() - 1) + " were lost, replica " + this.replica.getName() + " is stale");
+                    return;
+                }
+                this.sequence = event.getSequence();
+
+                synchronized (this.replica) {
+                    event.replay(this.replica.g, this.sourceId, ++this.timeId);
+                }
+            }
+        } catch (EOFException e) {
+            LOGGER.info("Replica " + this.replica.getName() + " reached the end of its change stream");
+        } catch (IOException e) {
+            LOGGER.error(e.getMessage(), e);
+        }
+    }
+}
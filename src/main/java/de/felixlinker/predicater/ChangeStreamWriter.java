@@ -0,0 +1,129 @@
+package de.felixlinker.predicater;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes changes to a stream, e.g. of a file or socket, so a {@link ChangeStreamReader} can replay them.
+ * Each batch is flushed once it has been written. The stream will be closed once the subscription ends.
+ * Writers of sockets close their socket if a batch can't be written in time, so a stalled reader ends the subscription
+ * rather than blocking its thread forever.
+ */
+public class ChangeStreamWriter implements ChangeListener, Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(ChangeStreamWriter.class);
+
+    /**
+     * Written at the start of every change stream.
+     */
+    static final int MAGIC = 0x50524443;
+
+    static final int VERSION = 1;
+
+    /**
+     * Closes connections whose writes take too long.
+     */
+    private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "change-stream-deadlines");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DataOutputStream out;
+
+    /**
+     * Connection to close when a write misses its deadline, {@code null} if writes have no deadline.
+     */
+    private final Closeable connection;
+
+    private final long writeTimeoutMillis;
+
+    /**
+     * Creates a writer whose writes have no deadline.
+     * @param out Stream to write to.
+     * @throws IOException Thrown if the stream header could not be written.
+     */
+    public ChangeStreamWriter(OutputStream out) throws IOException {
+        this(out, null, 0);
+    }
+
+    /**
+     * Creates a writer that closes the socket if writing a batch takes longer than given.
+     * @param socket Socket to write to.
+     * @param writeTimeoutMillis Time writing a batch may take.
+     * @throws IOException Thrown if the stream header could not be written.
+     */
+    public ChangeStreamWriter(Socket socket, long writeTimeoutMillis) throws IOException {
+        this(socket.getOutputStream(), socket, writeTimeoutMillis);
+    }
+
+    private ChangeStreamWriter(OutputStream out, Closeable connection, long writeTimeoutMillis) throws IOException {
+        this.connection = connection;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+        this.out.flush();
+    }
+
+    /**
+     * @throws UncheckedIOException Thrown if the changes could not be written, which ends the subscription.
+     */
+    @Override
+    public void onChanges(List<ChangeEvent> events) throws UncheckedIOException {
+        ScheduledFuture<?> deadline = this.connection == null
+                ? null
+                : DEADLINES.schedule(this::abort, this.writeTimeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            for (ChangeEvent event: events) {
+                event.writeTo(this.out);
+            }
+            this.out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection, which makes a blocked write fail.
+     */
+    private void abort() {
+        LOGGER.warn("Closing change stream as the reader did not accept changes within " + this.writeTimeoutMillis + " ms");
+        try {
+            this.connection.close();
+        } catch (IOException e) {
+            LOGGER.error(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void onClose() {
+        try {
+            close();
+        } catch (IOException e) {
+            LOGGER.error(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+}
@@ -0,0 +1,360 @@
+package de.felixlinker.predicater;
+
+import org.graphstream.graph.IdAlreadyInUseException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Executes the commands of one command line on a {@link StringDocument} in stages. The stages run in a fixed order:
+ * remove nodes, add nodes, unlink, link, label nodes, label edges, hide, display.
+ * All commands are validated against the state the document will have when the command's stage is reached before any
+ * stage runs, so an invalid command line leaves the document untouched. This includes the document's memory cap, which
+ * is checked once against an estimate of all data the command line adds rather than by each command.
+ * Within a stage, operations on different elements are independent of each other. Large stages are therefore split
+ * into groups of operations by element that run in parallel, while operations on the same element keep their order.
+ * Stages themselves run one after another, so operations that depend on an earlier stage see its results.
+ * Hiding and displaying edge types run on the calling thread.
+ */
+class CommandPipeline {
+
+    private static final String EDGE_LABEL_REGEX = ":";
+
+    /**
+     * Number of operations in a stage from which on they will be executed in parallel groups.
+     */
+    static final int PARALLEL_THRESHOLD = 1024;
+
+    private static final String[] NO_ARGUMENTS = new String[0];
+
+    private final StringDocument document;
+
+    private String[] removeNodes = NO_ARGUMENTS;
+
+    private String[] addNodes = NO_ARGUMENTS;
+
+    private String[] unlink = NO_ARGUMENTS;
+
+    private String[] link = NO_ARGUMENTS;
+
+    /**
+     * Edge types of {@link #link} with their labels split off.
+     */
+    private String[] linkPredicates = NO_ARGUMENTS;
+
+    private String[] linkLabels = NO_ARGUMENTS;
+
+    private String[] nodeLabels = NO_ARGUMENTS;
+
+    private String[] edgeLabels = NO_ARGUMENTS;
+
+    private String[] hidePredicates = NO_ARGUMENTS;
+
+    private String[] displayPredicates = NO_ARGUMENTS;
+
+    CommandPipeline(StringDocument document) {
+        this.document = document;
+    }
+
+    CommandPipeline removeNodes(String[] nodeIds) {
+        this.removeNodes = groups(nodeIds, 1, "--remove-node");
+        return this;
+    }
+
+    CommandPipeline addNodes(String[] nodes) throws IllegalArgumentException {
+        this.addNodes = groups(nodes, 2, "--add-node");
+        return this;
+    }
+
+    CommandPipeline unlink(String[] edges) throws IllegalArgumentException {
+        this.unlink = groups(edges, 3, "--unlink-nodes");
+        return this;
+    }
+
+    CommandPipeline link(String[] edges) throws IllegalArgumentException {
+        this.link = groups(edges, 3, "--link-nodes");
+        this.linkPredicates = new String[this.link.length / 3];
+        this.linkLabels = new String[this.link.length / 3];
+
+        for (int i = 0; i < this.linkPredicates.length; i++) {
+            String[] split = this.link[3 * i + 1].split(EDGE_LABEL_REGEX);
+            this.linkPredicates[i] = split[0];
+            this.linkLabels[i] = split.length > 1 ? split[1] : "";
+        }
+
+        return this;
+    }
+
+    CommandPipeline labelNodes(String[] labels) throws IllegalArgumentException {
+        this.nodeLabels = groups(labels, 2, "--label-node");
+        return this;
+    }
+
+    CommandPipeline labelEdges(String[] labels) throws IllegalArgumentException {
+        this.edgeLabels = groups(labels, 4, "--label-edge");
+        return this;
+    }
+
+    CommandPipeline hidePredicates(String[] predicates) {
+        this.hidePredicates = groups(predicates, 1, "--hide");
+        return this;
+    }
+
+    CommandPipeline displayPredicates(String[] predicates) {
+        this.displayPredicates = groups(predicates, 1, "--display");
+        return this;
+    }
+
+    private static String[] groups(String[] arguments, int groupSize, String option) throws IllegalArgumentException {
+        if (arguments == null) {
+            return NO_ARGUMENTS;
+        } else if (arguments.length % groupSize != 0) {
+            throw new IllegalArgumentException(option + " expects groups of " + groupSize + " arguments");
+        }
+
+        return arguments;
+    }
+
+    /**
+     * Checks whether all commands can be executed.
+     * @throws IllegalArgumentException Thrown if a command references a node or edge that won't exist when it is executed.
+     * @throws IdAlreadyInUseException Thrown if a command adds a node or edge that will exist already.
+     * @throws IllegalStateException Thrown if the document is read-only but commands would modify it, or if the document
+     * would exceed its memory cap.
+     */
+    void validate() throws IllegalArgumentException, IdAlreadyInUseException, IllegalStateException {
+        boolean modifies = this.removeNodes.length > 0 || this.addNodes.length > 0 || this.unlink.length > 0
+                || this.link.length > 0 || this.nodeLabels.length > 0 || this.edgeLabels.length > 0;
+        if (modifies && this.document.isReadOnly()) {
+            throw new IllegalStateException("This document is a read-only replica.");
+        }
+
+        // Edges of types that have not been read yet would be missed by the lookups below.
+        if (this.removeNodes.length > 0) {
+            this.document.loadAllPredicates();
+        }
+        for (int i = 0; i < this.unlink.length; i += 3) {
+            this.document.loadPredicate(this.unlink[i + 1]);
+        }
+        for (String predicate: this.linkPredicates) {
+            this.document.loadPredicate(predicate);
+        }
+        for (int i = 0; i < this.edgeLabels.length; i += 4) {
+            this.document.loadPredicate(this.edgeLabels[i + 1]);
+        }
+
+        Set<String> removed = new HashSet<>();
+        for (String nodeId: this.removeNodes) {
+            removed.add(nodeId);
+        }
+
+        Set<String> added = new HashSet<>();
+        for (int i = 0; i < this.addNodes.length; i += 2) {
+            String nodeId = this.addNodes[i];
+            if (!added.add(nodeId) || (nodeExists(nodeId) && !removed.contains(nodeId))) {
+                throw new IdAlreadyInUseException("Node " + nodeId + " already exists.");
+            }
+        }
+
+        Set<String> unlinked = new HashSet<>();
+        for (int i = 0; i < this.unlink.length; i += 3) {
+            unlinked.add(Document.getEdgeIdBetweenNodes(this.unlink[i], this.unlink[i + 1], this.unlink[i + 2]));
+        }
+
+        for (int i = 0; i < this.unlink.length; i += 3) {
+            if (!nodeExistsAfter(this.unlink[i], removed, added) || !nodeExistsAfter(this.unlink[i + 2], removed, added)) {
+                throw new IllegalArgumentException("At least one of the given nodes does not exist.");
+            }
+        }
+
+        for (int i = 0; i < this.link.length; i += 3) {
+            if (!nodeExistsAfter(this.link[i], removed, added) || !nodeExistsAfter(this.link[i + 2], removed, added)) {
+                throw new IllegalArgumentException("At least one of the given nodes does not exist.");
+            }
+        }
+
+        Set<String> linked = new HashSet<>();
+        for (int i = 0; i < this.linkPredicates.length; i++) {
+            String subject = this.link[3 * i],
+                    object = this.link[3 * i + 2];
+            String edgeId = Document.getEdgeIdBetweenNodes(subject, this.linkPredicates[i], object);
+            if (!linked.add(edgeId) || edgeExistsAfterUnlink(edgeId, subject, object, removed, unlinked)) {
+                throw new IdAlreadyInUseException("This edge already exists");
+            }
+        }
+
+        for (int i = 0; i < this.nodeLabels.length; i += 2) {
+            if (!nodeExistsAfter(this.nodeLabels[i], removed, added)) {
+                throw new IllegalArgumentException("At least one of the given nodes does not exist.");
+            }
+        }
+
+        for (int i = 0; i < this.edgeLabels.length; i += 4) {
+            String subject = this.edgeLabels[i],
+                    object = this.edgeLabels[i + 2];
+            String edgeId = Document.getEdgeIdBetweenNodes(subject, this.edgeLabels[i + 1], object);
+            if (!linked.contains(edgeId) && !edgeExistsAfterUnlink(edgeId, subject, object, removed, unlinked)) {
+                throw new IllegalArgumentException("At least one of the given edges does not exist.");
+            }
+        }
+
+        if (this.addNodes.length > 0 || this.link.length > 0 || this.nodeLabels.length > 0 || this.edgeLabels.length > 0) {
+            this.document.checkMemoryCap(estimateAdditions());
+        }
+    }
+
+    /**
+     * Estimates the heap the commands add to the document at most. Removals are disregarded.
+     * @return The estimate.
+     */
+    private long estimateAdditions() {
+        long bytes = 0;
+        for (int i = 0; i < this.addNodes.length; i += 2) {
+            bytes += MemoryReport.estimateNode(this.addNodes[i], this.document.metadataValues(this.addNodes[i + 1]));
+        }
+        for (int i = 0; i < this.linkPredicates.length; i++) {
+            String edgeId = Document.getEdgeIdBetweenNodes(this.link[3 * i], this.linkPredicates[i], this.link[3 * i + 2]);
+            Object[] metadataValues = this.document.metadataValues(this.linkLabels[i]);
+            Object[] values = Arrays.copyOf(metadataValues, metadataValues.length + 1);
+            values[metadataValues.length] = this.linkPredicates[i];
+            bytes += MemoryReport.estimateEdge(edgeId, values);
+        }
+        for (int i = 0; i < this.nodeLabels.length; i += 2) {
+            bytes += labelBytes(this.nodeLabels[i + 1]);
+        }
+        for (int i = 0; i < this.edgeLabels.length; i += 4) {
+            bytes += labelBytes(this.edgeLabels[i + 3]);
+        }
+        return bytes;
+    }
+
+    private long labelBytes(String label) {
+        long bytes = 0;
+        for (Object value: this.document.metadataValues(label)) {
+            bytes += MemoryReport.estimateAttribute(value);
+        }
+        return bytes;
+    }
+
+    private boolean nodeExists(String nodeId) {
+        return this.document.g.getNode(nodeId) != null;
+    }
+
+    private boolean nodeExistsAfter(String nodeId, Set<String> removed, Set<String> added) {
+        return added.contains(nodeId) || (nodeExists(nodeId) && !removed.contains(nodeId));
+    }
+
+    private boolean edgeExistsAfterUnlink(String edgeId, String subject, String object, Set<String> removed, Set<String> unlinked) {
+        return this.document.g.getEdge(edgeId) != null && !unlinked.contains(edgeId)
+                && !removed.contains(subject) && !removed.contains(object);
+    }
+
+    /**
+     * Executes all stages. Should only be invoked after {@link #validate()}, which checked the memory cap for all of them.
+     */
+    void execute() {
+        this.document.runPrechecked(this::executeStages);
+    }
+
+    private void executeStages() {
+        Stage removeNodesStage = new Stage();
+        for (String nodeId: this.removeNodes) {
+            removeNodesStage.add(nodeId, () -> this.document.removeNode(nodeId));
+        }
+        removeNodesStage.run();
+
+        Stage addNodesStage = new Stage();
+        for (int i = 0; i < this.addNodes.length; i += 2) {
+            String nodeId = this.addNodes[i],
+                    label = this.addNodes[i + 1];
+            addNodesStage.add(nodeId, () -> this.document.addNode(nodeId, label));
+        }
+        addNodesStage.run();
+
+        Stage unlinkStage = new Stage();
+        for (int i = 0; i < this.unlink.length; i += 3) {
+            String subject = this.unlink[i],
+                    predicate = this.unlink[i + 1],
+                    object = this.unlink[i + 2];
+            unlinkStage.add(Document.getEdgeIdBetweenNodes(subject, predicate, object), () -> this.document.unpredicate(subject, predicate, object));
+        }
+        unlinkStage.run();
+
+        Stage linkStage = new Stage();
+        for (int i = 0; i < this.linkPredicates.length; i++) {
+            String subject = this.link[3 * i],
+                    predicate = this.linkPredicates[i],
+                    object = this.link[3 * i + 2],
+                    label = this.linkLabels[i];
+            linkStage.add(Document.getEdgeIdBetweenNodes(subject, predicate, object), () -> this.document.predicate(subject, predicate, object, label));
+        }
+        linkStage.run();
+
+        Stage nodeLabelsStage = new Stage();
+        for (int i = 0; i < this.nodeLabels.length; i += 2) {
+            String nodeId = this.nodeLabels[i],
+                    label = this.nodeLabels[i + 1];
+            nodeLabelsStage.add(nodeId, () -> this.document.setNodeLabel(nodeId, label));
+        }
+        nodeLabelsStage.run();
+
+        Stage edgeLabelsStage = new Stage();
+        for (int i = 0; i < this.edgeLabels.length; i += 4) {
+            String subject = this.edgeLabels[i],
+                    predicate = this.edgeLabels[i + 1],
+                    object = this.edgeLabels[i + 2],
+                    label = this.edgeLabels[i + 3];
+            edgeLabelsStage.add(Document.getEdgeIdBetweenNodes(subject, predicate, object), () -> this.document.setEdgeLabel(subject, predicate, object, label));
+        }
+        edgeLabelsStage.run();
+
+        for (String predicate: this.hidePredicates) {
+            this.document.hidePredicate(predicate);
+        }
+
+        for (String predicate: this.displayPredicates) {
+            this.document.showPredicate(predicate);
+        }
+    }
+
+    /**
+     * Operations of one stage along with the element each of them modifies. Operations on the same element depend on each
+     * other and run in their given order, while operations on different elements may run in any order.
+     * Once there are many operations they are partitioned into groups by element, and the groups run in parallel.
+     * The document serializes the modifications of its graph itself (see {@link Document#graphLock}), so groups overlap
+     * in everything but the graph's modification.
+     */
+    private static class Stage {
+
+        private final List<String> elements = new ArrayList<>();
+
+        private final List<Runnable> operations = new ArrayList<>();
+
+        private void add(String element, Runnable operation) {
+            this.elements.add(element);
+            this.operations.add(operation);
+        }
+
+        private void run() {
+            if (this.operations.size() < PARALLEL_THRESHOLD) {
+                this.operations.forEach(Runnable::run);
+                return;
+            }
+
+            int groupCount = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+            List<List<Runnable>> groups = new ArrayList<>(groupCount);
+            for (int i = 0; i < groupCount; i++) {
+                groups.add(new ArrayList<>());
+            }
+            for (int i = 0; i < this.operations.size(); i++) {
+                groups.get(Math.floorMod(this.elements.get(i).hashCode(), groupCount)).add(this.operations.get(i));
+            }
+
+            groups.parallelStream().forEach(group -> group.forEach(Runnable::run));
+        }
+    }
+}
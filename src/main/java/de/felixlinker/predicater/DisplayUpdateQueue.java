@@ -0,0 +1,236 @@
+package de.felixlinker.predicater;
+
+import org.graphstream.graph.Element;
+import org.graphstream.graph.Graph;
+import org.graphstream.ui.view.Viewer;
+
+import javax.swing.Timer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Collects updates of a displayed graph and applies them on the Swing event dispatch thread, which the viewer renders on,
+ * at most {@link #FRAME_RATE} times per second. Threads that enqueue updates never touch the displayed graph.
+ * Attribute updates of an element are coalesced until the element is added or removed again, so only the last value
+ * per frame will be applied. While many updates arrive per frame the viewer's automatic layout is paused.
+ * The timer that applies updates only runs while there are updates pending or the layout is paused.
+ */
+class DisplayUpdateQueue {
+
+    private static final int FRAME_RATE = 30;
+
+    /**
+     * Number of updates per frame from which on the layout will be paused.
+     */
+    private static final int BURST_SIZE = 500;
+
+    /**
+     * Time without bursts after which a paused layout will be resumed.
+     */
+    private static final long LAYOUT_RESUME_MILLIS = 500;
+
+    private static final String GRAPH_KEY = "g";
+    private static final String NODE_KEY_PREFIX = "n:";
+    private static final String EDGE_KEY_PREFIX = "e:";
+
+    private final Graph displayGraph;
+
+    private final Runnable pauseLayout;
+
+    private final Runnable resumeLayout;
+
+    /**
+     * Applies pending updates on the event dispatch thread. {@code null} if updates are applied by invoking
+     * {@link #applyPending(long)} only.
+     */
+    private final Timer timer;
+
+    /**
+     * Updates of the current frame in order.
+     */
+    private List<Consumer<Graph>> pending = new ArrayList<>();
+
+    /**
+     * Attribute updates of the current frame that can still be coalesced, by element key and attribute.
+     */
+    private Map<String, Map<String, AttributeUpdate>> pendingAttributes = new HashMap<>();
+
+    /**
+     * Only accessed on the event dispatch thread.
+     */
+    private boolean layoutPaused = false;
+
+    private long lastBurstMillis = 0;
+
+    /**
+     * Creates a queue whose updates will be applied once per frame while there are any.
+     * @param displayGraph Graph to apply updates to.
+     * @param viewer Viewer that displays the graph.
+     */
+    DisplayUpdateQueue(Graph displayGraph, Viewer viewer) {
+        this.displayGraph = displayGraph;
+        this.pauseLayout = viewer::disableAutoLayout;
+        this.resumeLayout = viewer::enableAutoLayout;
+        this.timer = new Timer(1000 / FRAME_RATE, event -> applyPending(System.currentTimeMillis()));
+    }
+
+    /**
+     * Creates a queue whose updates will only be applied by invoking {@link #applyPending(long)}.
+     * @param displayGraph Graph to apply updates to.
+     * @param pauseLayout Pauses the layout of the displayed graph.
+     * @param resumeLayout Resumes the layout of the displayed graph.
+     */
+    DisplayUpdateQueue(Graph displayGraph, Runnable pauseLayout, Runnable resumeLayout) {
+        this.displayGraph = displayGraph;
+        this.pauseLayout = pauseLayout;
+        this.resumeLayout = resumeLayout;
+        this.timer = null;
+    }
+
+    synchronized void addNode(String nodeId) {
+        this.pendingAttributes.remove(NODE_KEY_PREFIX + nodeId);
+        enqueue(graph -> graph.addNode(nodeId));
+    }
+
+    synchronized void removeNode(String nodeId) {
+        this.pendingAttributes.remove(NODE_KEY_PREFIX + nodeId);
+        enqueue(graph -> graph.removeNode(nodeId));
+    }
+
+    synchronized void addEdge(String edgeId, String fromNodeId, String toNodeId, boolean directed) {
+        this.pendingAttributes.remove(EDGE_KEY_PREFIX + edgeId);
+        enqueue(graph -> graph.addEdge(edgeId, fromNodeId, toNodeId, directed));
+    }
+
+    synchronized void removeEdge(String edgeId) {
+        this.pendingAttributes.remove(EDGE_KEY_PREFIX + edgeId);
+        enqueue(graph -> graph.removeEdge(edgeId));
+    }
+
+    /**
+     * Discards all pending updates as the graph will be cleared anyway.
+     */
+    synchronized void clear() {
+        this.pending.clear();
+        this.pendingAttributes.clear();
+        enqueue(Graph::clear);
+    }
+
+    /**
+     * Adds an update and starts the timer if it is idle. Must be invoked while holding this queue's lock.
+     * @param update Update to add.
+     */
+    private void enqueue(Consumer<Graph> update) {
+        this.pending.add(update);
+        if (this.timer != null && !this.timer.isRunning()) {
+            this.timer.start();
+        }
+    }
+
+    void setGraphAttribute(String attribute, Object value) {
+        updateAttribute(GRAPH_KEY, graph -> graph, attribute, value, false);
+    }
+
+    void removeGraphAttribute(String attribute) {
+        updateAttribute(GRAPH_KEY, graph -> graph, attribute, null, true);
+    }
+
+    void setNodeAttribute(String nodeId, String attribute, Object value) {
+        updateAttribute(NODE_KEY_PREFIX + nodeId, graph -> graph.getNode(nodeId), attribute, value, false);
+    }
+
+    void removeNodeAttribute(String nodeId, String attribute) {
+        updateAttribute(NODE_KEY_PREFIX + nodeId, graph -> graph.getNode(nodeId), attribute, null, true);
+    }
+
+    void setEdgeAttribute(String edgeId, String attribute, Object value) {
+        updateAttribute(EDGE_KEY_PREFIX + edgeId, graph -> graph.getEdge(edgeId), attribute, value, false);
+    }
+
+    void removeEdgeAttribute(String edgeId, String attribute) {
+        updateAttribute(EDGE_KEY_PREFIX + edgeId, graph -> graph.getEdge(edgeId), attribute, null, true);
+    }
+
+    private synchronized void updateAttribute(String elementKey, Function<Graph, Element> elementOf, String attribute, Object value, boolean remove) {
+        Map<String, AttributeUpdate> elementUpdates = this.pendingAttributes.computeIfAbsent(elementKey, key -> new HashMap<>());
+        AttributeUpdate update = elementUpdates.get(attribute);
+        if (update == null) {
+            update = new AttributeUpdate(elementOf, attribute);
+            elementUpdates.put(attribute, update);
+            enqueue(update);
+        }
+
+        update.value = value;
+        update.remove = remove;
+    }
+
+    /**
+     * Applies all pending updates. Invoked on the event dispatch thread. Stops the timer once there is nothing left to do.
+     * @param now Current time in milliseconds.
+     */
+    void applyPending(long now) {
+        List<Consumer<Graph>> updates;
+        synchronized (this) {
+            updates = this.pending;
+            if (!updates.isEmpty()) {
+                this.pending = new ArrayList<>();
+                this.pendingAttributes = new HashMap<>();
+            }
+        }
+
+        if (updates.size() >= BURST_SIZE) {
+            this.lastBurstMillis = now;
+            if (!this.layoutPaused) {
+                this.pauseLayout.run();
+                this.layoutPaused = true;
+            }
+        } else if (this.layoutPaused && now - this.lastBurstMillis >= LAYOUT_RESUME_MILLIS) {
+            this.resumeLayout.run();
+            this.layoutPaused = false;
+        }
+
+        updates.forEach(update -> update.accept(this.displayGraph));
+
+        synchronized (this) {
+            // A paused layout has to be resumed, so the timer keeps running until then.
+            if (this.timer != null && this.pending.isEmpty() && !this.layoutPaused) {
+                this.timer.stop();
+            }
+        }
+    }
+
+    /**
+     * Sets or removes an attribute of an element, if the element still exists once the update is applied.
+     */
+    private static class AttributeUpdate implements Consumer<Graph> {
+
+        private final Function<Graph, Element> elementOf;
+
+        private final String attribute;
+
+        private Object value;
+
+        private boolean remove;
+
+        private AttributeUpdate(Function<Graph, Element> elementOf, String attribute) {
+            this.elementOf = elementOf;
+            this.attribute = attribute;
+        }
+
+        @Override
+        public void accept(Graph graph) {
+            Element element = this.elementOf.apply(graph);
+            if (element == null) {
+                return;
+            } else if (this.remove) {
+                element.removeAttribute(this.attribute);
+            } else {
+                element.addAttribute(this.attribute, this.value);
+            }
+        }
+    }
+}
@@ -9,12 +9,15 @@ import org.graphstream.ui.view.View;
 import org.graphstream.ui.view.Viewer;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * This class stores an undirected, loop-free graph with multiple types of edges. Each node can have metadata.
@@ -32,6 +35,11 @@ public class Document<T> {
     private static final boolean STRICT_MODE = false;
     private static final boolean AUTO_CREATE = false;
 
+    /**
+     * Minimal number of mutations after which the memory estimate used to enforce {@link #memoryCap} is renewed.
+     */
+    private static final int MEMORY_CHECK_INTERVAL = 256;
+
     /**
      * Set the renderer to allow advanced rendering features.
      */
@@ -44,11 +52,30 @@ public class Document<T> {
      */
     final Graph g;
 
+    /**
+     * Serializes modifications of {@link #g} by {@link #addNode(String, Object)}, {@link #removeNode(String)},
+     * {@link #predicate(String, String, String, Object)}, {@link #unpredicate(String, String, String)} and the label
+     * setters of subclasses, so these may be invoked concurrently. GraphStream graphs and their sinks take one writer at a
+     * time. Callers that need several operations to be atomic synchronize on the document itself.
+     */
+    final Object graphLock = new Object();
+
     /**
      * The graph that reflects all nodes and those edges that will be displayed.
+     * It is only modified by {@link #displayUpdates} on the thread the viewer renders on.
      */
     private final Graph displayGraph;
 
+    /**
+     * Queues all modifications of {@link #displayGraph}.
+     */
+    private final DisplayUpdateQueue displayUpdates;
+
+    /**
+     * Ids of the edges of {@link #g} that are, or are about to be, part of {@link #displayGraph}.
+     */
+    final HashSet<String> displayedEdges = new HashSet<>();
+
     /**
      * Holds the viewer that displays the graph.
      */
@@ -60,6 +87,44 @@ public class Document<T> {
 
     private final HashSet<String> displayedPredicates = new HashSet<>();
 
+    /**
+     * Holds the partitioned storage the document has been read from, if any.
+     */
+    private PartitionedStorage storage;
+
+    /**
+     * Edge types listed in {@link #storage} whose edges have not been read yet.
+     */
+    private final HashSet<String> pendingPredicates = new HashSet<>();
+
+    /**
+     * Publishes all changes of {@link #g}.
+     */
+    private final ChangeFeed changeFeed;
+
+    /**
+     * Whether the document is a replica that may only be changed by a {@link ChangeStreamReader}.
+     */
+    private volatile boolean readOnly = false;
+
+    /**
+     * Estimated number of bytes the document may retain before mutations that add data are rejected. Not positive if unlimited.
+     */
+    private volatile long memoryCap = 0;
+
+    /**
+     * Memory estimate to enforce {@link #memoryCap}. It is renewed after a number of mutations proportional to the
+     * document's size, so enforcing the cap takes amortized constant time per mutation.
+     */
+    private MemoryReport capReport;
+
+    private int mutationsSinceCapReport = 0;
+
+    /**
+     * Whether the running operations have been checked against {@link #memoryCap} as a whole, see {@link #runPrechecked(Runnable)}.
+     */
+    private volatile boolean capPrechecked = false;
+
     /**
      * Creates a document with given name.
      * @param name Unique name for the document.
@@ -69,11 +134,15 @@ public class Document<T> {
         this.g.addElementSink(new DisplayGraphElementSink());
         this.g.addAttributeSink(new DisplayGraphAttributeSink());
 
+        this.changeFeed = new ChangeFeed(this.g);
+        this.g.addSink(this.changeFeed);
+
         this.displayGraph = new MultiGraph(name + Integer.toString(name.hashCode()), STRICT_MODE, AUTO_CREATE);
         this.displayGraph.setAttribute(STYLE_ATTR, "url(" + STYLE_SHEET.toString() + ")");
 
         this.graphViewer = this.displayGraph.display();
         this.graphView = this.graphViewer.getDefaultView();
+        this.displayUpdates = new DisplayUpdateQueue(this.displayGraph, this.graphViewer);
     }
 
     /**
@@ -82,16 +151,25 @@ public class Document<T> {
      * @param metaData Meta data to be assigned to the node.
      * @return This document for chain invocation.
      * @throws IdAlreadyInUseException Thrown if any of the given node's id already exists.
+     * @throws IllegalStateException Thrown if the document is read-only or exceeds its memory cap.
      */
-    public Document addNode(String nodeId, T metaData) throws IdAlreadyInUseException {
-        if (this.g.getNode(nodeId) != null) {
-            throw new IdAlreadyInUseException();
+    public Document addNode(String nodeId, T metaData) throws IdAlreadyInUseException, IllegalStateException {
+        checkWritable();
+        synchronized (this.graphLock) {
+            if (this.g.getNode(nodeId) != null) {
+                throw new IdAlreadyInUseException();
+            }
+
+            checkMemoryCap();
+            insertNode(nodeId, metaData);
         }
 
+        return this;
+    }
+
+    private void insertNode(String nodeId, T metaData) {
         Node newNode = this.g.addNode(nodeId);
         setMetadata(newNode, metaData);
-
-        return this;
     }
 
     /**
@@ -100,7 +178,12 @@ public class Document<T> {
      * @return {@code true} if the node could be removed, false if it didn't existed.
      */
     public boolean removeNode(String nodeId) {
-        return this.g.removeNode(nodeId) != null;
+        checkWritable();
+        synchronized (this.graphLock) {
+            // Edges of any type might be attached to the node, so these have to be removed as well.
+            loadAllPredicates();
+            return this.g.removeNode(nodeId) != null;
+        }
     }
 
     /**
@@ -111,25 +194,32 @@ public class Document<T> {
      * @return This document for chain invocation.
      * @throws IllegalArgumentException Thrown if any of the given nodes doesn't exist.
      * @throws IdAlreadyInUseException Thrown if an edge between given nodes and of given type already exists.
+     * @throws IllegalStateException Thrown if the document is read-only or exceeds its memory cap.
      */
-    public Document predicate(String subject, String predicate, String object, T metaData) throws IllegalArgumentException, IdAlreadyInUseException {
-        Node from = this.g.getNode(subject),
-                to = this.g.getNode(object);
+    public Document predicate(String subject, String predicate, String object, T metaData) throws IllegalArgumentException, IdAlreadyInUseException, IllegalStateException {
+        checkWritable();
+        String edgeId = getEdgeIdBetweenNodes(subject, predicate, object);
+        synchronized (this.graphLock) {
+            if (this.g.getNode(subject) == null || this.g.getNode(object) == null) {
+                throw new IllegalArgumentException("At least one of the given nodes does not exist.");
+            }
 
-        if (from == null || to == null) {
-            throw new IllegalArgumentException("At least one of the given nodes does not exist.");
-        }
+            loadPredicate(predicate);
+            if (this.g.getEdge(edgeId) != null) {
+                throw new IdAlreadyInUseException("This edge already exists");
+            }
 
-        String edgeId = getEdgeIdBetweenNodes(subject, predicate, object);
-        if (this.g.getEdge(edgeId) != null) {
-            throw new IdAlreadyInUseException("This edge already exists");
+            checkMemoryCap();
+            insertEdge(edgeId, subject, predicate, object, metaData);
         }
 
-        Edge edge = this.g.addEdge(edgeId, from, to, this.edgesAreDirected);
+        return this;
+    }
+
+    private void insertEdge(String edgeId, String subject, String predicate, String object, T metaData) {
+        Edge edge = this.g.addEdge(edgeId, subject, object, this.edgesAreDirected);
         edge.addAttribute(PRED_ATTR, predicate);
         setMetadata(edge, metaData);
-
-        return this;
     }
 
     /**
@@ -141,13 +231,17 @@ public class Document<T> {
      * @throws IllegalArgumentException Thrown if any of the given nodes doesn't exist.
      */
     public Document unpredicate(String subject, String predicate, String object) throws IllegalArgumentException {
+        checkWritable();
+        String edgeId = getEdgeIdBetweenNodes(subject, predicate, object);
+        synchronized (this.graphLock) {
+            if (this.g.getNode(subject) == null || this.g.getNode(object) == null) {
+                throw new IllegalArgumentException("At least one of the given nodes does not exist.");
+            }
 
-        if (this.g.getNode(subject) == null || this.g.getNode(object) == null) {
-            throw new IllegalArgumentException("At least one of the given nodes does not exist.");
+            loadPredicate(predicate);
+            this.g.removeEdge(edgeId);
         }
 
-        this.g.removeEdge(getEdgeIdBetweenNodes(subject, predicate, object));
-
         return this;
     }
 
@@ -159,6 +253,7 @@ public class Document<T> {
      * @return This document for chain invocation.
      */
     public boolean isPredicated(String subject, String predicate, String object) {
+        loadPredicate(predicate);
         return this.g.getEdge(getEdgeIdBetweenNodes(subject, predicate, object)) != null;
     }
 
@@ -171,19 +266,12 @@ public class Document<T> {
             return;
         }
 
+        loadPredicate(predicate);
         this.displayedPredicates.add(predicate);
 
         this.g.getEachEdge().forEach(edge -> {
             if (edge.getAttribute(PRED_ATTR, String.class).equals(predicate)) {
-
-                Edge newEdge = this.displayGraph.addEdge(edge.getId(), edge.getNode0().getId(), edge.getNode1().getId(), this.edgesAreDirected);
-
-                Map<String, Object> attributeMap = edge.getAttributeKeySet().stream()
-                        .collect(Collectors.toMap(
-                                x -> x,
-                                x -> edge.getAttribute(x, Object.class)
-                        ));
-                newEdge.addAttributes(attributeMap);
+                displayEdge(edge);
             }
         });
     }
@@ -199,12 +287,22 @@ public class Document<T> {
 
         this.displayedPredicates.remove(predicate);
 
-        Iterator<Edge> iterator = this.displayGraph.getEdgeIterator();
-        while (iterator.hasNext()) {
-            Edge edge = iterator.next();
-            if (edge.getAttribute(PRED_ATTR, String.class).equals(predicate)) {
-                iterator.remove();
+        this.g.getEachEdge().forEach(edge -> {
+            if (edge.getAttribute(PRED_ATTR, String.class).equals(predicate) && this.displayedEdges.remove(edge.getId())) {
+                this.displayUpdates.removeEdge(edge.getId());
             }
+        });
+    }
+
+    /**
+     * Adds an edge along with its attributes to {@link #displayGraph}.
+     * @param edge Edge of {@link #g} to display.
+     */
+    private void displayEdge(Edge edge) {
+        this.displayedEdges.add(edge.getId());
+        this.displayUpdates.addEdge(edge.getId(), edge.getSourceNode().getId(), edge.getTargetNode().getId(), edge.isDirected());
+        for (String attribute: edge.getAttributeKeySet()) {
+            this.displayUpdates.setEdgeAttribute(edge.getId(), attribute, edge.getAttribute(attribute, Object.class));
         }
     }
 
@@ -223,11 +321,241 @@ public class Document<T> {
     public Set<String> getPredicates() {
         HashSet<String> predicates = new HashSet<>();
         this.g.getEachEdge().forEach(edge -> predicates.add(edge.getAttribute(PRED_ATTR, String.class)));
+        predicates.addAll(this.pendingPredicates);
         return predicates;
     }
 
     /**
-     * Sets the metadata to an element of the graph.
+     * Applies a diff to this document in one batch. Nodes and edges that were added will be added, metadata that changed
+     * will be resolved by the given policy. Removed nodes and edges are kept, so merging two diverged copies into each other
+     * results in their union.
+     * The diff will be checked against the current state of the document before the document is modified, so a diff
+     * that doesn't apply anymore leaves the document unchanged.
+     * @param diff Diff to apply, as computed by {@link DocumentDiff#between(Document, Document)} with this document as base.
+     * @param policy How to resolve elements whose metadata differs.
+     * @return This document for chain invocation.
+     * @throws IllegalArgumentException Thrown if the diff was computed against another document.
+     * @throws IllegalStateException Thrown if the policy is {@link DocumentDiff.ConflictPolicy#FAIL} and there are conflicts,
+     * if the document changed since the diff was computed or if merging would exceed its memory cap.
+     */
+    public Document merge(DocumentDiff<T> diff, DocumentDiff.ConflictPolicy policy) throws IllegalArgumentException, IllegalStateException {
+        checkWritable();
+        if (!diff.isBasedOn(this)) {
+            throw new IllegalArgumentException("The diff was computed against another document.");
+        } else if (policy == DocumentDiff.ConflictPolicy.FAIL && !(diff.getChangedNodes().isEmpty() && diff.getChangedEdges().isEmpty())) {
+            throw new IllegalStateException("The metadata of at least one element differs.");
+        }
+
+        loadAllPredicates();
+        boolean stale = diff.getAddedNodes().keySet().stream().anyMatch(nodeId -> this.g.getNode(nodeId) != null)
+                || diff.getAddedEdges().keySet().stream().anyMatch(edgeId -> this.g.getEdge(edgeId) != null)
+                || diff.getAddedEdges().values().stream().anyMatch(edge ->
+                        !nodeExistsAfterMerge(edge.subject, diff) || !nodeExistsAfterMerge(edge.object, diff))
+                || diff.getChangedNodes().entrySet().stream().anyMatch(entry -> isStale(this.g.getNode(entry.getKey()), entry.getValue()))
+                || diff.getChangedEdges().entrySet().stream().anyMatch(entry -> isStale(this.g.getEdge(entry.getKey()), entry.getValue()));
+        if (stale) {
+            throw new IllegalStateException("The document changed since the diff was computed.");
+        }
+
+        checkMemoryCap(estimateMerge(diff, policy));
+        diff.getAddedNodes().forEach(this::insertNode);
+        diff.getAddedEdges().forEach((edgeId, edge) -> insertEdge(edgeId, edge.subject, edge.predicate, edge.object, edge.metadata));
+        this.mutationsSinceCapReport += diff.getAddedNodes().size() + diff.getAddedEdges().size();
+
+        if (policy == DocumentDiff.ConflictPolicy.THEIRS) {
+            diff.getChangedNodes().forEach((nodeId, change) -> setMetadata(this.g.getNode(nodeId), change.newValue));
+            diff.getChangedEdges().forEach((edgeId, change) -> setMetadata(this.g.getEdge(edgeId), change.newValue));
+        }
+
+        return this;
+    }
+
+    /**
+     * Estimates the heap merging a diff adds at most.
+     */
+    private long estimateMerge(DocumentDiff<T> diff, DocumentDiff.ConflictPolicy policy) {
+        long bytes = 0;
+        for (Map.Entry<String, T> node: diff.getAddedNodes().entrySet()) {
+            bytes += MemoryReport.estimateNode(node.getKey(), metadataValues(node.getValue()));
+        }
+        for (Map.Entry<String, DocumentDiff.Triple<T>> edge: diff.getAddedEdges().entrySet()) {
+            Object[] metadataValues = metadataValues(edge.getValue().metadata);
+            Object[] values = Arrays.copyOf(metadataValues, metadataValues.length + 1);
+            values[metadataValues.length] = edge.getValue().predicate;
+            bytes += MemoryReport.estimateEdge(edge.getKey(), values);
+        }
+
+        if (policy == DocumentDiff.ConflictPolicy.THEIRS) {
+            List<DocumentDiff.Change<T>> changes = new ArrayList<>(diff.getChangedNodes().values());
+            changes.addAll(diff.getChangedEdges().values());
+            for (DocumentDiff.Change<T> change: changes) {
+                for (Object value: metadataValues(change.newValue)) {
+                    bytes += MemoryReport.estimateAttribute(value);
+                }
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Checks whether a changed element was removed or relabeled since the diff was computed.
+     */
+    private boolean isStale(Element element, DocumentDiff.Change<T> change) {
+        return element == null || !Objects.equals(getMetadata(element), change.oldValue);
+    }
+
+    private boolean nodeExistsAfterMerge(String nodeId, DocumentDiff<T> diff) {
+        return this.g.getNode(nodeId) != null || diff.getAddedNodes().containsKey(nodeId);
+    }
+
+    /**
+     * Subscribes to all changes of this document. The listener will be invoked on a thread of its own, so it won't slow
+     * down modifications unless its buffer is full and the policy is {@link ChangeFeed.OverflowPolicy#BLOCK}.
+     * Edges read lazily from a partitioned document are delivered as added edges, unless they were read for the snapshot.
+     * @param listener Listener to receive the changes.
+     * @param capacity Number of changes to buffer.
+     * @param policy What to do when the buffer is full.
+     * @param snapshot Whether the listener shall first receive changes that describe the document's current state.
+     * @return The subscription, which has to be closed to unsubscribe.
+     * @throws IllegalArgumentException See {@link ChangeFeed#subscribe(ChangeListener, int, ChangeFeed.OverflowPolicy, boolean)}.
+     */
+    public ChangeFeed.Subscription subscribe(ChangeListener listener, int capacity, ChangeFeed.OverflowPolicy policy, boolean snapshot) throws IllegalArgumentException {
+        if (snapshot) {
+            loadAllPredicates();
+        }
+
+        return this.changeFeed.subscribe(listener, capacity, policy, snapshot);
+    }
+
+    /**
+     * Checks whether the document may only be changed by a {@link ChangeStreamReader}.
+     * @return {@code true} if the document is a replica.
+     */
+    public boolean isReadOnly() {
+        return this.readOnly;
+    }
+
+    void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * @throws IllegalStateException Thrown if the document is read-only.
+     */
+    void checkWritable() throws IllegalStateException {
+        if (this.readOnly) {
+            throw new IllegalStateException("This document is a read-only replica.");
+        }
+    }
+
+    /**
+     * Estimates the heap retained by this document.
+     * @return The estimate.
+     */
+    public MemoryReport getMemoryReport() {
+        return MemoryReport.estimate(this.g, this.displayedEdges, this.displayedPredicates, this.pendingPredicates);
+    }
+
+    /**
+     * Returns the memory cap.
+     * @return Estimated number of bytes the document may retain, not positive if unlimited.
+     */
+    public long getMemoryCap() {
+        return this.memoryCap;
+    }
+
+    /**
+     * Limits the heap this document may retain. Once the estimate given by {@link #getMemoryReport()} reaches the cap,
+     * nodes, edges and metadata can't be added anymore. Removing nodes and edges is always possible.
+     * As the estimate is only renewed from time to time, the cap may be exceeded slightly and memory freed by removals
+     * is noticed with some delay.
+     * @param memoryCap Estimated number of bytes the document may retain, not positive to remove the cap.
+     */
+    public void setMemoryCap(long memoryCap) {
+        this.memoryCap = memoryCap;
+        this.capReport = null;
+    }
+
+    /**
+     * Checks the memory cap. Operations invoke this once, after all other checks passed and before they modify the graph,
+     * so an operation that is rejected leaves the document unchanged.
+     * @throws IllegalStateException Thrown if the document exceeds its memory cap.
+     */
+    void checkMemoryCap() throws IllegalStateException {
+        checkMemoryCap(0);
+    }
+
+    /**
+     * Checks whether changes of an estimated size would fit into the memory cap. The estimate is renewed only as often as
+     * described in {@link #setMemoryCap(long)}, so this takes amortized constant time.
+     * Operations run by {@link #runPrechecked(Runnable)} are counted but not checked.
+     * @param additionalBytes Estimated number of bytes the changes will add.
+     * @throws IllegalStateException Thrown if the document would exceed its memory cap.
+     */
+    void checkMemoryCap(long additionalBytes) throws IllegalStateException {
+        if (this.memoryCap <= 0) {
+            return;
+        } else if (this.capPrechecked) {
+            this.mutationsSinceCapReport++;
+            return;
+        }
+
+        int checkInterval = Math.max(MEMORY_CHECK_INTERVAL, (this.g.getNodeCount() + this.g.getEdgeCount()) / 16);
+        if (this.capReport == null || ++this.mutationsSinceCapReport >= checkInterval) {
+            this.capReport = getMemoryReport();
+            this.mutationsSinceCapReport = 0;
+        }
+
+        if (this.capReport.getTotalBytes() + additionalBytes >= this.memoryCap) {
+            throw new IllegalStateException("These changes would exceed the document's memory cap of " + this.memoryCap + " bytes.");
+        }
+    }
+
+    /**
+     * Runs operations whose additions have been checked with {@link #checkMemoryCap(long)} as a whole beforehand, so none
+     * of them will be rejected by the memory cap on its own.
+     * @param operations Operations to run.
+     */
+    void runPrechecked(Runnable operations) {
+        this.capPrechecked = true;
+        try {
+            operations.run();
+        } finally {
+            this.capPrechecked = false;
+        }
+    }
+
+    /**
+     * Returns the metadata of an element of the graph.
+     * @param element Element to get metadata from.
+     * @return Metadata.
+     */
+    T getMetadata(Element element) {
+        return element.getAttribute(META_ATTR);
+    }
+
+    /**
+     * Returns the edge type of an edge of the graph.
+     * @param edge Edge to get the type from.
+     * @return Edge type.
+     */
+    static String getPredicate(Edge edge) {
+        return edge.getAttribute(PRED_ATTR, String.class);
+    }
+
+    /**
+     * Returns the values of the attributes {@link #setMetadata(Element, Object)} stores, to estimate their size.
+     * @param metadata Metadata.
+     * @return Attribute values.
+     */
+    Object[] metadataValues(T metadata) {
+        return new Object[]{metadata};
+    }
+
+    /**
+     * Sets the metadata to an element of the graph. Neither checks whether the document is writable nor its memory cap,
+     * which is up to the invoking operation.
      * @param element Element ot set metadata to.
      * @param metadata Metadata.
      */
@@ -251,9 +579,64 @@ public class Document<T> {
      * @throws IOException See {@link MultiGraph#write(String)}.
      */
     public void write(String fileName) throws IOException {
+        loadAllPredicates();
         this.g.write(fileName);
     }
 
+    /**
+     * Fills the document with a graph of the given directory written by {@link #writePartitioned(String)}.
+     * Nodes will be read immediately, edges of a type will be read when they are accessed for the first time.
+     * @param directory Directory to read from.
+     * @throws IOException See {@link PartitionedStorage#open(String)} and {@link PartitionedStorage#readNodes(Graph)}.
+     */
+    public void readPartitioned(String directory) throws IOException {
+        loadAllPredicates();
+
+        PartitionedStorage newStorage = PartitionedStorage.open(directory);
+        newStorage.readNodes(this.g);
+
+        this.storage = newStorage;
+        this.pendingPredicates.addAll(newStorage.getPredicateCounts().keySet());
+    }
+
+    /**
+     * Writes the graph into a given directory, partitioned by edge type.
+     * @param directory Directory to write to.
+     * @throws IOException See {@link PartitionedStorage#write(Graph, String, java.util.function.Function)}.
+     */
+    public void writePartitioned(String directory) throws IOException {
+        loadAllPredicates();
+        PartitionedStorage.write(this.g, directory, Document::getPredicate);
+    }
+
+    /**
+     * Reads the edges of given type from {@link #storage} if that has not happened yet.
+     * @param predicate Edge type to read.
+     * @throws UncheckedIOException Thrown if the edges could not be read.
+     */
+    void loadPredicate(String predicate) throws UncheckedIOException {
+        synchronized (this.graphLock) {
+            if (!this.pendingPredicates.remove(predicate)) {
+                return;
+            }
+
+            try {
+                this.storage.readSegment(this.g, predicate);
+            } catch (IOException e) {
+                this.pendingPredicates.add(predicate);
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads all edges from {@link #storage} that have not been read yet.
+     * @throws UncheckedIOException Thrown if the edges could not be read.
+     */
+    void loadAllPredicates() throws UncheckedIOException {
+        new HashSet<>(this.pendingPredicates).forEach(this::loadPredicate);
+    }
+
     /**
      * Returns an edge id for stated edge.
      * @param fromNode Node the edge starts.
@@ -266,18 +649,18 @@ public class Document<T> {
     }
 
     /**
-     * This class mirrors all activity {@link #g} to {@link #displayGraph} when necessary.
+     * This class mirrors all activity on {@link #g} to {@link #displayGraph} when necessary.
      */
     private class DisplayGraphElementSink implements ElementSink {
 
         @Override
         public void nodeAdded(String sourceId, long timeId, String nodeId) {
-            displayGraph.addNode(nodeId);
+            displayUpdates.addNode(nodeId);
         }
 
         @Override
         public void nodeRemoved(String sourceId, long timeId, String nodeId) {
-            displayGraph.removeNode(nodeId);
+            displayUpdates.removeNode(nodeId);
         }
 
         @Override
@@ -287,12 +670,15 @@ public class Document<T> {
 
         @Override
         public void edgeRemoved(String sourceId, long timeId, String edgeId) {
-            displayGraph.removeEdge(edgeId);
+            if (displayedEdges.remove(edgeId)) {
+                displayUpdates.removeEdge(edgeId);
+            }
         }
 
         @Override
         public void graphCleared(String sourceId, long timeId) {
-            displayGraph.clear();
+            displayedEdges.clear();
+            displayUpdates.clear();
         }
 
         @Override
@@ -306,79 +692,73 @@ public class Document<T> {
 
         @Override
         public void graphAttributeAdded(String sourceId, long timeId, String attribute, Object value) {
-            displayGraph.addAttribute(attribute, value);
+            displayUpdates.setGraphAttribute(attribute, value);
         }
 
         @Override
         public void graphAttributeChanged(String sourceId, long timeId, String attribute, Object oldValue, Object newValue) {
-            displayGraph.addAttribute(attribute, newValue);
+            displayUpdates.setGraphAttribute(attribute, newValue);
         }
 
         @Override
         public void graphAttributeRemoved(String sourceId, long timeId, String attribute) {
-            displayGraph.removeAttribute(attribute);
+            displayUpdates.removeGraphAttribute(attribute);
         }
 
         @Override
         public void nodeAttributeAdded(String sourceId, long timeId, String nodeId, String attribute, Object value) {
-            displayGraph.getNode(nodeId).addAttribute(attribute, value);
+            displayUpdates.setNodeAttribute(nodeId, attribute, value);
         }
 
         @Override
         public void nodeAttributeChanged(String sourceId, long timeId, String nodeId, String attribute, Object oldValue, Object newValue) {
-            displayGraph.getNode(nodeId).addAttribute(attribute, newValue);
+            displayUpdates.setNodeAttribute(nodeId, attribute, newValue);
         }
 
         @Override
         public void nodeAttributeRemoved(String sourceId, long timeId, String nodeId, String attribute) {
-            displayGraph.getNode(nodeId).removeAttribute(attribute);
+            displayUpdates.removeNodeAttribute(nodeId, attribute);
         }
 
         @Override
         public void edgeAttributeAdded(String sourceId, long timeId, String edgeId, String attribute, Object value) {
-            Edge edge = displayGraph.getEdge(edgeId);
-
-            if (edge == null) {
+            if (!displayedEdges.contains(edgeId)) {
                 if (attribute.equals(PRED_ATTR) && displayedPredicates.contains(value)) {
-                    Edge orgEdge = g.getEdge(edgeId);
-                    edge = displayGraph.addEdge(edgeId, orgEdge.getSourceNode().getId(), orgEdge.getTargetNode().getId(), orgEdge.isDirected());
-                } else {
-                    return;
+                    displayEdge(g.getEdge(edgeId));
                 }
+                return;
             }
 
-            edge.addAttribute(attribute, value);
+            displayUpdates.setEdgeAttribute(edgeId, attribute, value);
         }
 
         @Override
         public void edgeAttributeChanged(String sourceId, long timeId, String edgeId, String attribute, Object oldValue, Object newValue) {
-            Edge edge = displayGraph.getEdge(edgeId);
-            if (edge == null) {
+            if (!displayedEdges.contains(edgeId)) {
                 if (attribute.equals(PRED_ATTR) && displayedPredicates.contains(newValue)) {
-                    Edge orgEdge = g.getEdge(edgeId);
-                    edge = displayGraph.addEdge(edgeId, orgEdge.getSourceNode().getId(), orgEdge.getTargetNode().getId(), orgEdge.isDirected());
-                } else {
-                    return;
+                    displayEdge(g.getEdge(edgeId));
                 }
+                return;
             } else if (attribute.equals(PRED_ATTR) && !displayedPredicates.contains(newValue)) {
-                displayGraph.removeEdge(edgeId);
+                displayedEdges.remove(edgeId);
+                displayUpdates.removeEdge(edgeId);
                 return;
             }
 
-            edge.addAttribute(attribute, newValue);
+            displayUpdates.setEdgeAttribute(edgeId, attribute, newValue);
         }
 
         @Override
         public void edgeAttributeRemoved(String sourceId, long timeId, String edgeId, String attribute) {
-            Edge edge = displayGraph.getEdge(edgeId);
-            if (edge == null) {
+            if (!displayedEdges.contains(edgeId)) {
                 return;
             } else if (attribute.equals(PRED_ATTR)) {
-                displayGraph.removeEdge(edgeId);
+                displayedEdges.remove(edgeId);
+                displayUpdates.removeEdge(edgeId);
                 return;
             }
 
-            edge.removeAttribute(attribute);
+            displayUpdates.removeEdgeAttribute(edgeId, attribute);
         }
     }
 }
@@ -0,0 +1,240 @@
+package de.felixlinker.predicater;
+
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Node;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The difference between two {@link Document}s. Nodes are identified by their id, edges by their id which is made of
+ * subject, predicate and object (see {@link Document#getEdgeIdBetweenNodes(String, String, String)}).
+ * Added elements exist in the other document only, removed elements exist in the base document only.
+ * @param <T> Type of the documents' metadata.
+ */
+public class DocumentDiff<T> {
+
+    /**
+     * Policies on how to resolve elements whose metadata differs between two documents when merging them.
+     */
+    public enum ConflictPolicy {
+        /**
+         * Keep the metadata of the document that is merged into.
+         */
+        OURS,
+        /**
+         * Take the metadata of the document that is merged from.
+         */
+        THEIRS,
+        /**
+         * Reject the merge.
+         */
+        FAIL
+    }
+
+    private final Map<String, T> addedNodes = new LinkedHashMap<>();
+
+    private final List<String> removedNodes = new LinkedList<>();
+
+    private final Map<String, Triple<T>> addedEdges = new LinkedHashMap<>();
+
+    private final Map<String, Triple<T>> removedEdges = new LinkedHashMap<>();
+
+    private final Map<String, Change<T>> changedNodes = new LinkedHashMap<>();
+
+    private final Map<String, Change<T>> changedEdges = new LinkedHashMap<>();
+
+    /**
+     * The document the changes were computed against.
+     */
+    private final Document<T> base;
+
+    private DocumentDiff(Document<T> base) {
+        this.base = base;
+    }
+
+    /**
+     * Computes the difference between two documents. Each document's elements are iterated once while the elements of
+     * the other document are looked up by id.
+     * @param base Document to compare against.
+     * @param other Document to compare.
+     * @param <T> Type of the documents' metadata.
+     * @return The changes that lead from {@code base} to {@code other}.
+     */
+    public static <T> DocumentDiff<T> between(Document<T> base, Document<T> other) {
+        base.loadAllPredicates();
+        other.loadAllPredicates();
+
+        DocumentDiff<T> diff = new DocumentDiff<>(base);
+
+        for (Node node: base.g.getEachNode()) {
+            Node otherNode = other.g.getNode(node.getId());
+            if (otherNode == null) {
+                diff.removedNodes.add(node.getId());
+            } else {
+                T oldValue = base.getMetadata(node),
+                        newValue = other.getMetadata(otherNode);
+                if (!Objects.equals(oldValue, newValue)) {
+                    diff.changedNodes.put(node.getId(), new Change<>(oldValue, newValue));
+                }
+            }
+        }
+
+        for (Node node: other.g.getEachNode()) {
+            if (base.g.getNode(node.getId()) == null) {
+                diff.addedNodes.put(node.getId(), other.getMetadata(node));
+            }
+        }
+
+        for (Edge edge: base.g.getEachEdge()) {
+            Edge otherEdge = other.g.getEdge(edge.getId());
+            if (otherEdge == null) {
+                diff.removedEdges.put(edge.getId(), Triple.of(base, edge));
+            } else {
+                T oldValue = base.getMetadata(edge),
+                        newValue = other.getMetadata(otherEdge);
+                if (!Objects.equals(oldValue, newValue)) {
+                    diff.changedEdges.put(edge.getId(), new Change<>(oldValue, newValue));
+                }
+            }
+        }
+
+        for (Edge edge: other.g.getEachEdge()) {
+            if (base.g.getEdge(edge.getId()) == null) {
+                diff.addedEdges.put(edge.getId(), Triple.of(other, edge));
+            }
+        }
+
+        return diff;
+    }
+
+    /**
+     * Checks whether the changes were computed against the given document.
+     * @param document Document to check.
+     * @return {@code true} if the document is the base of this diff.
+     */
+    public boolean isBasedOn(Document<T> document) {
+        return this.base == document;
+    }
+
+    /**
+     * Checks whether both documents were equal.
+     * @return {@code true} if there are no changes.
+     */
+    public boolean isEmpty() {
+        return this.addedNodes.isEmpty() && this.removedNodes.isEmpty()
+                && this.addedEdges.isEmpty() && this.removedEdges.isEmpty()
+                && this.changedNodes.isEmpty() && this.changedEdges.isEmpty();
+    }
+
+    /**
+     * Returns the nodes that exist in the other document only.
+     * @return Map of node ids to metadata.
+     */
+    public Map<String, T> getAddedNodes() {
+        return Collections.unmodifiableMap(this.addedNodes);
+    }
+
+    /**
+     * Returns the nodes that exist in the base document only.
+     * @return List of node ids.
+     */
+    public List<String> getRemovedNodes() {
+        return Collections.unmodifiableList(this.removedNodes);
+    }
+
+    /**
+     * Returns the edges that exist in the other document only.
+     * @return Map of edge ids to edges.
+     */
+    public Map<String, Triple<T>> getAddedEdges() {
+        return Collections.unmodifiableMap(this.addedEdges);
+    }
+
+    /**
+     * Returns the edges that exist in the base document only.
+     * @return Map of edge ids to edges.
+     */
+    public Map<String, Triple<T>> getRemovedEdges() {
+        return Collections.unmodifiableMap(this.removedEdges);
+    }
+
+    /**
+     * Returns the nodes that exist in both documents but with different metadata.
+     * @return Map of node ids to metadata changes.
+     */
+    public Map<String, Change<T>> getChangedNodes() {
+        return Collections.unmodifiableMap(this.changedNodes);
+    }
+
+    /**
+     * Returns the edges that exist in both documents but with different metadata.
+     * @return Map of edge ids to metadata changes.
+     */
+    public Map<String, Change<T>> getChangedEdges() {
+        return Collections.unmodifiableMap(this.changedEdges);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        this.addedNodes.forEach((id, value) -> builder.append("\n+ node ").append(id).append(" ").append(value));
+        this.removedNodes.forEach(id -> builder.append("\n- node ").append(id));
+        this.addedEdges.forEach((id, edge) -> builder.append("\n+ edge ").append(id).append(" ").append(edge.metadata));
+        this.removedEdges.forEach((id, edge) -> builder.append("\n- edge ").append(id));
+        this.changedNodes.forEach((id, change) -> builder.append("\n~ node ").append(id).append(" ").append(change));
+        this.changedEdges.forEach((id, change) -> builder.append("\n~ edge ").append(id).append(" ").append(change));
+        return builder.toString();
+    }
+
+    /**
+     * An edge of a document.
+     * @param <T> Type of the edge's metadata.
+     */
+    public static class Triple<T> {
+
+        public final String subject;
+
+        public final String predicate;
+
+        public final String object;
+
+        public final T metadata;
+
+        private Triple(String subject, String predicate, String object, T metadata) {
+            this.subject = subject;
+            this.predicate = predicate;
+            this.object = object;
+            this.metadata = metadata;
+        }
+
+        private static <T> Triple<T> of(Document<T> document, Edge edge) {
+            return new Triple<>(edge.getSourceNode().getId(), Document.getPredicate(edge), edge.getTargetNode().getId(), document.getMetadata(edge));
+        }
+    }
+
+    /**
+     * A metadata change of an element that exists in both documents.
+     * @param <T> Type of the element's metadata.
+     */
+    public static class Change<T> {
+
+        public final T oldValue;
+
+        public final T newValue;
+
+        private Change(T oldValue, T newValue) {
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        @Override
+        public String toString() {
+            return oldValue + " -> " + newValue;
+        }
+    }
+}
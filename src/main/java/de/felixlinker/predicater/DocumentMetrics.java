@@ -0,0 +1,101 @@
+package de.felixlinker.predicater;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Exports a document's {@link MemoryReport} via JMX. Estimates are reused for a short time, so reading all attributes
+ * at once scans the document only once.
+ */
+public class DocumentMetrics implements DocumentMetricsMBean {
+
+    private static final String DOMAIN = "de.felixlinker.predicater";
+
+    /**
+     * Time an estimate is reused for.
+     */
+    private static final long REPORT_MAX_AGE_MILLIS = 1000;
+
+    private final Document<?> document;
+
+    private MemoryReport report;
+
+    private long reportMillis;
+
+    private DocumentMetrics(Document<?> document) {
+        this.document = document;
+    }
+
+    /**
+     * Registers the metrics of a document with the platform MBean server.
+     * @param document Document to export metrics of.
+     * @throws JMException Thrown if the metrics could not be registered, e.g. because a document of the same name is registered already.
+     */
+    public static void register(Document<?> document) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(new DocumentMetrics(document), objectName(document));
+    }
+
+    private static ObjectName objectName(Document<?> document) throws JMException {
+        return new ObjectName(DOMAIN + ":type=Document,name=" + ObjectName.quote(document.getName()));
+    }
+
+    private synchronized MemoryReport report() {
+        long now = System.currentTimeMillis();
+        if (this.report == null || now - this.reportMillis >= REPORT_MAX_AGE_MILLIS) {
+            synchronized (this.document) {
+                this.report = this.document.getMemoryReport();
+            }
+            this.reportMillis = now;
+        }
+
+        return this.report;
+    }
+
+    @Override
+    public long getNodeCount() {
+        return report().getNodeCount();
+    }
+
+    @Override
+    public long getEdgeCount() {
+        return report().getEdgeCount();
+    }
+
+    @Override
+    public long getNodeBytes() {
+        return report().getNodeBytes();
+    }
+
+    @Override
+    public long getEdgeBytes() {
+        return report().getEdgeBytes();
+    }
+
+    @Override
+    public long getAttributeBytes() {
+        return report().getAttributeBytes();
+    }
+
+    @Override
+    public long getDisplayMirrorBytes() {
+        return report().getDisplayMirrorBytes();
+    }
+
+    @Override
+    public long getIndexBytes() {
+        return report().getIndexBytes();
+    }
+
+    @Override
+    public long getTotalBytes() {
+        return report().getTotalBytes();
+    }
+
+    @Override
+    public long getMemoryCap() {
+        return this.document.getMemoryCap();
+    }
+}
@@ -0,0 +1,25 @@
+package de.felixlinker.predicater;
+
+/**
+ * Management interface of {@link DocumentMetrics}.
+ */
+public interface DocumentMetricsMBean {
+
+    long getNodeCount();
+
+    long getEdgeCount();
+
+    long getNodeBytes();
+
+    long getEdgeBytes();
+
+    long getAttributeBytes();
+
+    long getDisplayMirrorBytes();
+
+    long getIndexBytes();
+
+    long getTotalBytes();
+
+    long getMemoryCap();
+}
@@ -0,0 +1,245 @@
+package de.felixlinker.predicater;
+
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Element;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+
+import java.util.Collection;
+
+/**
+ * Estimates the heap retained by a {@link Document}. Sizes are approximations for a 64 bit JVM with compressed references
+ * derived from the layout of GraphStream's {@link org.graphstream.graph.implementations.MultiGraph}, not measurements.
+ */
+public class MemoryReport {
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int REFERENCE = 4;
+    private static final int ALIGNMENT = 8;
+
+    /**
+     * Node object along with its neighbor map and edge array.
+     */
+    private static final long NODE_OVERHEAD = 112;
+
+    /**
+     * Edge object along with its entries in the neighbor maps and edge arrays of both nodes.
+     */
+    private static final long EDGE_OVERHEAD = 120;
+
+    /**
+     * Attribute map of an element that has at least one attribute.
+     */
+    private static final long ATTRIBUTE_MAP_OVERHEAD = 64;
+
+    /**
+     * Hash map entry along with its table slot.
+     */
+    private static final long MAP_ENTRY = 40;
+
+    /**
+     * Boxed primitives and other values of unknown size.
+     */
+    private static final long DEFAULT_VALUE = 16;
+
+    private final long nodeCount;
+
+    private final long edgeCount;
+
+    private final long nodeBytes;
+
+    private final long edgeBytes;
+
+    private final long attributeBytes;
+
+    private final long displayMirrorBytes;
+
+    private final long indexBytes;
+
+    private MemoryReport(long nodeCount, long edgeCount, long nodeBytes, long edgeBytes, long attributeBytes, long displayMirrorBytes, long indexBytes) {
+        this.nodeCount = nodeCount;
+        this.edgeCount = edgeCount;
+        this.nodeBytes = nodeBytes;
+        this.edgeBytes = edgeBytes;
+        this.attributeBytes = attributeBytes;
+        this.displayMirrorBytes = displayMirrorBytes;
+        this.indexBytes = indexBytes;
+    }
+
+    /**
+     * Estimates the heap retained by a document's graphs. The graph mirrored for display is estimated from the stored
+     * graph, as it is modified on another thread.
+     * @param graph Graph that stores all nodes and edges.
+     * @param displayedEdgeIds Ids of the edges that are mirrored for display along with all nodes.
+     * @param predicateIndexes Sets of edge types the document keeps track of.
+     * @return The estimate.
+     */
+    static MemoryReport estimate(Graph graph, Collection<String> displayedEdgeIds, Collection<?>... predicateIndexes) {
+        long indexBytes = graphIndexBytes(graph);
+        for (Collection<?> predicateIndex: predicateIndexes) {
+            for (Object predicate: predicateIndex) {
+                indexBytes += MAP_ENTRY + valueBytes(predicate);
+            }
+        }
+
+        long displayMirrorBytes = nodeBytes(graph) + elementAttributeBytes(graph)
+                + (graph.getNodeCount() + displayedEdgeIds.size()) * (MAP_ENTRY + REFERENCE);
+        for (Node node: graph.getEachNode()) {
+            displayMirrorBytes += elementAttributeBytes(node);
+        }
+        for (String edgeId: displayedEdgeIds) {
+            // The id set itself is accounted for as well.
+            Edge edge = graph.getEdge(edgeId);
+            displayMirrorBytes += MAP_ENTRY + EDGE_OVERHEAD + stringBytes(edgeId) + (edge == null ? 0 : elementAttributeBytes(edge));
+        }
+
+        return new MemoryReport(graph.getNodeCount(), graph.getEdgeCount(), nodeBytes(graph), edgeBytes(graph), attributeBytes(graph), displayMirrorBytes, indexBytes);
+    }
+
+    /**
+     * Estimates the heap a node will add to a document, including its display mirror.
+     * @param nodeId Id of the node.
+     * @param attributeValues Values of the node's attributes.
+     * @return The estimate.
+     */
+    static long estimateNode(String nodeId, Object... attributeValues) {
+        return 2 * (NODE_OVERHEAD + stringBytes(nodeId) + MAP_ENTRY + REFERENCE + attributeMapBytes(attributeValues));
+    }
+
+    /**
+     * Estimates the heap an edge will add to a document, assuming it will be displayed.
+     * @param edgeId Id of the edge.
+     * @param attributeValues Values of the edge's attributes.
+     * @return The estimate.
+     */
+    static long estimateEdge(String edgeId, Object... attributeValues) {
+        return 2 * (EDGE_OVERHEAD + stringBytes(edgeId) + MAP_ENTRY + REFERENCE + attributeMapBytes(attributeValues)) + MAP_ENTRY;
+    }
+
+    /**
+     * Estimates the heap an attribute value will add to a displayed element at most, disregarding the value it replaces.
+     * @param value The value.
+     * @return The estimate.
+     */
+    static long estimateAttribute(Object value) {
+        return 2 * (MAP_ENTRY + valueBytes(value));
+    }
+
+    private static long attributeMapBytes(Object... values) {
+        long bytes = ATTRIBUTE_MAP_OVERHEAD;
+        for (Object value: values) {
+            bytes += MAP_ENTRY + valueBytes(value);
+        }
+        return bytes;
+    }
+
+    private static long nodeBytes(Graph graph) {
+        long bytes = 0;
+        for (Node node: graph.getEachNode()) {
+            bytes += NODE_OVERHEAD + stringBytes(node.getId());
+        }
+        return bytes;
+    }
+
+    private static long edgeBytes(Graph graph) {
+        long bytes = 0;
+        for (Edge edge: graph.getEachEdge()) {
+            bytes += EDGE_OVERHEAD + stringBytes(edge.getId());
+        }
+        return bytes;
+    }
+
+    private static long attributeBytes(Graph graph) {
+        long bytes = elementAttributeBytes(graph);
+        for (Node node: graph.getEachNode()) {
+            bytes += elementAttributeBytes(node);
+        }
+        for (Edge edge: graph.getEachEdge()) {
+            bytes += elementAttributeBytes(edge);
+        }
+        return bytes;
+    }
+
+    private static long elementAttributeBytes(Element element) {
+        if (element.getAttributeCount() == 0) {
+            return 0;
+        }
+
+        // Attribute keys are mostly shared constants, so only values are accounted for.
+        long bytes = ATTRIBUTE_MAP_OVERHEAD;
+        for (String attribute: element.getAttributeKeySet()) {
+            bytes += MAP_ENTRY + valueBytes(element.getAttribute(attribute, Object.class));
+        }
+        return bytes;
+    }
+
+    /**
+     * Graphs index their elements by id and by position.
+     */
+    private static long graphIndexBytes(Graph graph) {
+        return (graph.getNodeCount() + graph.getEdgeCount()) * (MAP_ENTRY + REFERENCE);
+    }
+
+    private static long valueBytes(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return stringBytes((String) value);
+        }
+
+        return DEFAULT_VALUE;
+    }
+
+    private static long stringBytes(String string) {
+        // String object with hash field and reference to its char array, followed by the array itself.
+        return align(OBJECT_HEADER + REFERENCE + 4) + align(OBJECT_HEADER + 4 + 2L * string.length());
+    }
+
+    private static long align(long bytes) {
+        return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public long getEdgeCount() {
+        return edgeCount;
+    }
+
+    public long getNodeBytes() {
+        return nodeBytes;
+    }
+
+    public long getEdgeBytes() {
+        return edgeBytes;
+    }
+
+    public long getAttributeBytes() {
+        return attributeBytes;
+    }
+
+    public long getDisplayMirrorBytes() {
+        return displayMirrorBytes;
+    }
+
+    public long getIndexBytes() {
+        return indexBytes;
+    }
+
+    public long getTotalBytes() {
+        return nodeBytes + edgeBytes + attributeBytes + displayMirrorBytes + indexBytes;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append(nodeCount).append(" nodes, ").append(edgeCount).append(" edges, ~").append(getTotalBytes()).append(" bytes")
+                .append("\n  nodes: ").append(nodeBytes)
+                .append("\n  edges: ").append(edgeBytes)
+                .append("\n  attributes: ").append(attributeBytes)
+                .append("\n  display mirror: ").append(displayMirrorBytes)
+                .append("\n  indexes: ").append(indexBytes)
+                .toString();
+    }
+}
@@ -0,0 +1,193 @@
+package de.felixlinker.predicater;
+
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+import org.graphstream.stream.file.FileSinkDGS;
+import org.graphstream.stream.file.FileSourceDGS;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Stores a graph in a directory that is partitioned by edge type. The directory holds a node file, one segment file per
+ * edge type and a manifest listing each edge type together with its segment and edge count.
+ * Node file and segments are written in the DGS format, so they can be read with the regular GraphStream file sources.
+ */
+class PartitionedStorage {
+
+    private static final String MANIFEST_FILE = "manifest";
+    private static final String NODE_FILE = "nodes.dgs";
+    private static final String SEGMENT_PREFIX = "edges-";
+    private static final String SEGMENT_SUFFIX = ".dgs";
+    private static final String MANIFEST_SEPARATOR = "\t";
+
+    private final Path directory;
+
+    /**
+     * Maps each edge type to its segment as listed in the manifest.
+     */
+    private final Map<String, Segment> segments;
+
+    private PartitionedStorage(Path directory, Map<String, Segment> segments) {
+        this.directory = directory;
+        this.segments = segments;
+    }
+
+    /**
+     * Opens a partitioned directory by reading its manifest. Neither nodes nor edges will be read.
+     * @param directory Directory to open.
+     * @return The opened storage.
+     * @throws IOException Thrown if the manifest could not be read or is malformed.
+     */
+    static PartitionedStorage open(String directory) throws IOException {
+        Path path = Paths.get(directory);
+        Map<String, Segment> segments = new LinkedHashMap<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(path.resolve(MANIFEST_FILE), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                // The predicate comes last, so it may contain the separator itself.
+                String[] split = line.split(MANIFEST_SEPARATOR, 3);
+                if (split.length < 3) {
+                    throw new IOException("Malformed manifest entry: " + line);
+                }
+
+                try {
+                    segments.put(split[2], new Segment(split[1], Integer.parseInt(split[0])));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed manifest entry: " + line, e);
+                }
+            }
+        }
+
+        return new PartitionedStorage(path, segments);
+    }
+
+    /**
+     * Writes a graph into a partitioned directory. The directory will be created if it does not exist.
+     * @param graph Graph to write.
+     * @param directory Directory to write to.
+     * @param predicateOf Function to determine the edge type of an edge.
+     * @throws IOException Thrown if any of the files could not be written.
+     */
+    static void write(Graph graph, String directory, Function<Edge, String> predicateOf) throws IOException {
+        Path path = Paths.get(directory);
+        Files.createDirectories(path);
+
+        String sourceId = graph.getId();
+
+        FileSinkDGS nodeSink = new FileSinkDGS();
+        nodeSink.begin(path.resolve(NODE_FILE).toString());
+        for (String attribute: graph.getAttributeKeySet()) {
+            nodeSink.graphAttributeAdded(sourceId, 0, attribute, graph.getAttribute(attribute, Object.class));
+        }
+        for (Node node: graph.getEachNode()) {
+            nodeSink.nodeAdded(sourceId, 0, node.getId());
+            for (String attribute: node.getAttributeKeySet()) {
+                nodeSink.nodeAttributeAdded(sourceId, 0, node.getId(), attribute, node.getAttribute(attribute, Object.class));
+            }
+        }
+        nodeSink.end();
+
+        Map<String, List<Edge>> edgesByPredicate = new LinkedHashMap<>();
+        for (Edge edge: graph.getEachEdge()) {
+            edgesByPredicate.computeIfAbsent(predicateOf.apply(edge), predicate -> new LinkedList<>()).add(edge);
+        }
+
+        try (BufferedWriter manifest = Files.newBufferedWriter(path.resolve(MANIFEST_FILE), StandardCharsets.UTF_8)) {
+            int segmentIndex = 0;
+            for (Map.Entry<String, List<Edge>> entry: edgesByPredicate.entrySet()) {
+                String segmentFile = SEGMENT_PREFIX + segmentIndex++ + SEGMENT_SUFFIX;
+
+                FileSinkDGS edgeSink = new FileSinkDGS();
+                edgeSink.begin(path.resolve(segmentFile).toString());
+                for (Edge edge: entry.getValue()) {
+                    edgeSink.edgeAdded(sourceId, 0, edge.getId(), edge.getSourceNode().getId(), edge.getTargetNode().getId(), edge.isDirected());
+                    for (String attribute: edge.getAttributeKeySet()) {
+                        edgeSink.edgeAttributeAdded(sourceId, 0, edge.getId(), attribute, edge.getAttribute(attribute, Object.class));
+                    }
+                }
+                edgeSink.end();
+
+                manifest.write(entry.getValue().size() + MANIFEST_SEPARATOR + segmentFile + MANIFEST_SEPARATOR + entry.getKey());
+                manifest.newLine();
+            }
+        }
+    }
+
+    /**
+     * Returns the edge types listed in the manifest along with their edge count.
+     * @return Unmodifiable map of edge types to edge counts.
+     */
+    Map<String, Integer> getPredicateCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        this.segments.forEach((predicate, segment) -> counts.put(predicate, segment.edgeCount));
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * Reads all nodes into the given graph.
+     * @param graph Graph to read into.
+     * @throws IOException Thrown if the node file could not be read.
+     */
+    void readNodes(Graph graph) throws IOException {
+        readInto(graph, NODE_FILE);
+    }
+
+    /**
+     * Reads all edges of given type into the given graph. All nodes must have been read before.
+     * @param graph Graph to read into.
+     * @param predicate Edge type to read.
+     * @throws IOException Thrown if the segment could not be read.
+     * @throws IllegalArgumentException Thrown if the manifest does not list given edge type.
+     */
+    void readSegment(Graph graph, String predicate) throws IOException, IllegalArgumentException {
+        Segment segment = this.segments.get(predicate);
+        if (segment == null) {
+            throw new IllegalArgumentException("No segment exists for the given predicate.");
+        }
+
+        readInto(graph, segment.fileName);
+    }
+
+    private void readInto(Graph graph, String fileName) throws IOException {
+        FileSourceDGS source = new FileSourceDGS();
+        source.addSink(graph);
+        try {
+            source.readAll(this.directory.resolve(fileName).toString());
+        } finally {
+            source.removeSink(graph);
+        }
+    }
+
+    /**
+     * A manifest entry.
+     */
+    private static class Segment {
+
+        private final String fileName;
+
+        private final int edgeCount;
+
+        private Segment(String fileName, int edgeCount) {
+            this.fileName = fileName;
+            this.edgeCount = edgeCount;
+        }
+    }
+}
@@ -22,19 +22,29 @@ public class StringDocument extends Document<String> {
         element.addAttribute(LABEL_ATTR, metadata);
     }
 
+    @Override
+    Object[] metadataValues(String metadata) {
+        return new Object[]{metadata, metadata};
+    }
+
     /**
      * Sets the node label.
      * @param nodeId Node to label.
      * @param label New node label.
      * @throws IllegalArgumentException Thrown if the node does not exist.
+     * @throws IllegalStateException Thrown if the document is read-only or exceeds its memory cap.
      */
-    public void setNodeLabel(String nodeId, String label) throws IllegalArgumentException {
-        Node node = super.g.getNode(nodeId);
-        if (node == null) {
-            throw new IllegalArgumentException();
-        }
+    public void setNodeLabel(String nodeId, String label) throws IllegalArgumentException, IllegalStateException {
+        checkWritable();
+        synchronized (this.graphLock) {
+            Node node = super.g.getNode(nodeId);
+            if (node == null) {
+                throw new IllegalArgumentException();
+            }
 
-        setMetadata(node, label);
+            checkMemoryCap();
+            setMetadata(node, label);
+        }
     }
 
     /**
@@ -44,13 +54,20 @@ public class StringDocument extends Document<String> {
      * @param to Node the edge ends
      * @param label New edge label.
      * @throws IllegalArgumentException Thrown if the edge does not exist.
+     * @throws IllegalStateException Thrown if the document is read-only or exceeds its memory cap.
      */
-    public void setEdgeLabel(String from, String predicate, String to, String label) throws IllegalArgumentException {
-        Edge edge = super.g.getEdge(getEdgeIdBetweenNodes(from, predicate, to));
-        if (edge == null) {
-            throw new IllegalArgumentException();
-        }
+    public void setEdgeLabel(String from, String predicate, String to, String label) throws IllegalArgumentException, IllegalStateException {
+        checkWritable();
+        String edgeId = getEdgeIdBetweenNodes(from, predicate, to);
+        synchronized (this.graphLock) {
+            loadPredicate(predicate);
+            Edge edge = super.g.getEdge(edgeId);
+            if (edge == null) {
+                throw new IllegalArgumentException();
+            }
 
-        setMetadata(edge, label);
+            checkMemoryCap();
+            setMetadata(edge, label);
+        }
     }
 }
@@ -1,11 +1,35 @@
 package de.felixlinker.predicater;
 
+import org.graphstream.graph.Graph;
 import org.graphstream.graph.IdAlreadyInUseException;
+import org.graphstream.graph.implementations.MultiGraph;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DocumentTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private Document<String> genDoc(String name) {
         Document<String> d = new Document<>(name);
         d.addNode("A", "A").addNode("B", "B").addNode("C", "C");
@@ -39,4 +63,359 @@ public class DocumentTest {
         Assert.assertTrue(d.removeNode("A"));
         Assert.assertFalse(d.removeNode("A"));
     }
+
+    @Test
+    public void partitionedTest() throws IOException {
+        String directory = folder.newFolder().getPath();
+        genDoc("partTest").writePartitioned(directory);
+
+        Document<String> d = new Document<>("partTestRead");
+        d.readPartitioned(directory);
+        Assert.assertEquals(new HashSet<>(Arrays.asList("isGreen", "isBlue", "isYellow")), d.getPredicates());
+        Assert.assertTrue(d.isPredicated("A", "isGreen", "B"));
+        Assert.assertFalse(d.isPredicated("A", "isBlue", "B"));
+        Assert.assertTrue(d.removeNode("C"));
+        Assert.assertFalse(d.isPredicated("B", "isBlue", "C"));
+    }
+
+    @Test
+    public void diffMergeTest() {
+        Document<String> base = genDoc("diffBase"),
+                other = genDoc("diffOther");
+        base.removeNode("C");
+        other.addNode("D", "D").predicate("A", "isRed", "D", "");
+        other.setMetadata(other.g.getNode("A"), "a");
+
+        DocumentDiff<String> diff = DocumentDiff.between(base, other);
+        Assert.assertEquals(Arrays.asList("C", "D"), new LinkedList<>(new TreeSet<>(diff.getAddedNodes().keySet())));
+        Assert.assertTrue(diff.getRemovedNodes().isEmpty());
+        Assert.assertEquals(3, diff.getAddedEdges().size());
+        Assert.assertEquals("a", diff.getChangedNodes().get("A").newValue);
+
+        base.merge(diff, DocumentDiff.ConflictPolicy.THEIRS);
+        Assert.assertTrue(base.isPredicated("A", "isRed", "D"));
+        Assert.assertTrue(base.isPredicated("C", "isYellow", "A"));
+        Assert.assertTrue(DocumentDiff.between(base, other).isEmpty());
+    }
+
+    @Test
+    public void staleMergeTest() {
+        Document<String> base = genDoc("staleBase"),
+                other = genDoc("staleOther");
+        other.addNode("D", "D").addNode("E", "E");
+        DocumentDiff<String> diff = DocumentDiff.between(base, other);
+
+        base.addNode("E", "e");
+        try {
+            base.merge(diff, DocumentDiff.ConflictPolicy.THEIRS);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertNull(base.g.getNode("D"));
+        }
+
+        try {
+            other.merge(diff, DocumentDiff.ConflictPolicy.THEIRS);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // The diff belongs to base.
+        }
+
+        Document<String> relabeled = genDoc("staleRelabeled");
+        other.setMetadata(other.g.getNode("A"), "a");
+        DocumentDiff<String> labelDiff = DocumentDiff.between(relabeled, other);
+        relabeled.setMetadata(relabeled.g.getNode("A"), "edited");
+        try {
+            relabeled.merge(labelDiff, DocumentDiff.ConflictPolicy.THEIRS);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("edited", relabeled.getMetadata(relabeled.g.getNode("A")));
+            Assert.assertNull(relabeled.g.getNode("D"));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void mergeConflictTest() {
+        Document<String> base = genDoc("conflictBase"),
+                other = genDoc("conflictOther");
+        other.setMetadata(other.g.getNode("A"), "a");
+        base.merge(DocumentDiff.between(base, other), DocumentDiff.ConflictPolicy.FAIL);
+    }
+
+    @Test
+    public void changeStreamTest() throws IOException, InterruptedException {
+        Document<String> d = genDoc("feedTest");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChangeStreamWriter writer = new ChangeStreamWriter(out);
+        CountDownLatch removed = new CountDownLatch(1);
+        ChangeFeed.Subscription subscription = d.subscribe(events -> {
+            writer.onChanges(events);
+            if (events.stream().anyMatch(event -> event.getType() == ChangeEvent.Type.NODE_REMOVED)) {
+                removed.countDown();
+            }
+        }, 4, ChangeFeed.OverflowPolicy.BLOCK, true);
+
+        d.addNode("D", "D").predicate("D", "isRed", "A", "");
+        d.removeNode("B");
+        Assert.assertTrue(removed.await(5, TimeUnit.SECONDS));
+        subscription.close();
+
+        Document<String> replica = new Document<>("feedTestReplica");
+        new ChangeStreamReader(replica, new ByteArrayInputStream(out.toByteArray())).run();
+        Assert.assertTrue(replica.isReadOnly());
+        Assert.assertTrue(DocumentDiff.between(d, replica).isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void stalledFollowerTest() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+             Socket follower = serverSocket.accept()) {
+            ChangeStreamWriter writer = new ChangeStreamWriter(socket, 200);
+            char[] label = new char[1 << 16];
+            Arrays.fill(label, 'x');
+            List<ChangeEvent> events = Collections.singletonList(new ChangeEvent(ChangeEvent.Type.NODE_ATTRIBUTE_SET,
+                    1, false, "A", null, null, false, "label", new String(label)));
+
+            // The follower never reads, so the socket's buffers fill up until the deadline closes it.
+            try {
+                while (true) {
+                    writer.onChanges(events);
+                }
+            } catch (UncheckedIOException e) {
+                Assert.assertTrue(socket.isClosed());
+            }
+        }
+    }
+
+    @Test
+    public void memoryCapTest() {
+        Document<String> d = genDoc("memTest");
+        MemoryReport report = d.getMemoryReport();
+        Assert.assertEquals(3, report.getNodeCount());
+        Assert.assertEquals(3, report.getEdgeCount());
+        Assert.assertTrue(report.getAttributeBytes() > 0);
+
+        d.setMemoryCap(report.getTotalBytes());
+        try {
+            d.addNode("D", "D");
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertNull(d.g.getNode("D"));
+        }
+        Assert.assertTrue(d.removeNode("A"));
+    }
+
+    @Test
+    public void memoryCapMergeTest() {
+        StringDocument d = new StringDocument("memMergeTest"),
+                other = new StringDocument("memMergeOther");
+        d.addNode("A", "A");
+        other.addNode("A", "A");
+        for (int i = 0; i < 100; i++) {
+            other.addNode("N" + i, "N" + i).predicate("A", "isGreen", "N" + i, "");
+        }
+
+        // The document is below its cap, but the diff doesn't fit into the remaining headroom.
+        d.setMemoryCap(d.getMemoryReport().getTotalBytes() + 10000);
+        try {
+            d.merge(DocumentDiff.between(d, other), DocumentDiff.ConflictPolicy.OURS);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(1, d.g.getNodeCount());
+            Assert.assertEquals(0, d.g.getEdgeCount());
+        }
+
+        d.setMemoryCap(0);
+        d.merge(DocumentDiff.between(d, other), DocumentDiff.ConflictPolicy.OURS);
+        Assert.assertEquals(101, d.g.getNodeCount());
+    }
+
+    @Test
+    public void memoryCapCrossedTest() {
+        StringDocument d = new StringDocument("memCrossedTest");
+        // Large enough for the estimate to be renewed at varying intervals.
+        for (int i = 0; i < 5000; i++) {
+            d.addNode("N" + i, "N" + i);
+        }
+
+        d.setMemoryCap(d.getMemoryReport().getTotalBytes() + 100000);
+        int added = 0;
+        try {
+            while (true) {
+                d.addNode("M" + added, "M" + added);
+                added++;
+            }
+        } catch (IllegalStateException e) {
+            // The operation that crossed the cap must not have left a node behind, and all others are complete.
+            Assert.assertNull(d.g.getNode("M" + added));
+            Assert.assertEquals(5000 + added, d.g.getNodeCount());
+            Assert.assertEquals("M" + (added - 1), d.getMetadata(d.g.getNode("M" + (added - 1))));
+        }
+
+        try {
+            d.setNodeLabel("N0", "changed");
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("N0", d.getMetadata(d.g.getNode("N0")));
+        }
+
+        StringDocument other = new StringDocument("memCrossedOther");
+        other.addNode("N0", "N0").addNode("X", "X");
+        try {
+            d.merge(DocumentDiff.between(d, other), DocumentDiff.ConflictPolicy.OURS);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertNull(d.g.getNode("X"));
+        }
+    }
+
+    @Test
+    public void commandPipelineTest() {
+        StringDocument d = new StringDocument("pipelineTest");
+        d.addNode("A", "A").addNode("B", "B");
+
+        CommandPipeline invalid = new CommandPipeline(d)
+                .addNodes(new String[]{"C", "C"})
+                .link(new String[]{"A", "isGreen", "D"});
+        try {
+            invalid.validate();
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertNull(d.g.getNode("C"));
+        }
+
+        CommandPipeline valid = new CommandPipeline(d)
+                .removeNodes(new String[]{"B"})
+                .addNodes(new String[]{"B", "B", "C", "C"})
+                .link(new String[]{"A", "isGreen:label", "B", "C", "isGreen", "A"})
+                .labelEdges(new String[]{"A", "isGreen", "B", "other"});
+        valid.validate();
+        valid.execute();
+        Assert.assertTrue(d.isPredicated("A", "isGreen", "B"));
+        Assert.assertTrue(d.isPredicated("C", "isGreen", "A"));
+        Assert.assertEquals("other", d.getMetadata(d.g.getEdge(Document.getEdgeIdBetweenNodes("A", "isGreen", "B"))));
+
+        d.setMemoryCap(d.getMemoryReport().getTotalBytes() + 1000);
+        CommandPipeline exceeding = new CommandPipeline(d)
+                .addNodes(new String[]{"D", "D", "E", "E", "F", "F"})
+                .link(new String[]{"D", "isGreen", "E", "E", "isGreen", "F"});
+        try {
+            exceeding.validate();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertNull(d.g.getNode("D"));
+        }
+
+        CommandPipeline fitting = new CommandPipeline(d)
+                .addNodes(new String[]{"D", "D"});
+        fitting.validate();
+        fitting.execute();
+        Assert.assertNotNull(d.g.getNode("D"));
+    }
+
+    @Test
+    public void parallelCommandPipelineTest() {
+        StringDocument d = new StringDocument("parallelPipelineTest");
+        int count = CommandPipeline.PARALLEL_THRESHOLD + 1;
+        String[] addNodes = new String[2 * count],
+                link = new String[3 * (count - 1)],
+                nodeLabels = new String[4 * count];
+        for (int i = 0; i < count; i++) {
+            addNodes[2 * i] = "N" + i;
+            addNodes[2 * i + 1] = "N" + i;
+            // Both labels of a node have to be applied in order.
+            nodeLabels[2 * i] = "N" + i;
+            nodeLabels[2 * i + 1] = "first";
+            nodeLabels[2 * (count + i)] = "N" + i;
+            nodeLabels[2 * (count + i) + 1] = "second";
+        }
+        for (int i = 0; i + 1 < count; i++) {
+            link[3 * i] = "N" + i;
+            link[3 * i + 1] = "next";
+            link[3 * i + 2] = "N" + (i + 1);
+        }
+
+        CommandPipeline pipeline = new CommandPipeline(d)
+                .addNodes(addNodes)
+                .link(link)
+                .labelNodes(nodeLabels);
+        pipeline.validate();
+        pipeline.execute();
+
+        Assert.assertEquals(count, d.g.getNodeCount());
+        Assert.assertEquals(count - 1, d.g.getEdgeCount());
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals("second", d.getMetadata(d.g.getNode("N" + i)));
+        }
+        Assert.assertTrue(d.isPredicated("N0", "next", "N1"));
+    }
+
+    @Test
+    public void displayUpdateQueueTest() {
+        Graph graph = new MultiGraph("queueTest", false, false);
+        AtomicInteger pauses = new AtomicInteger(),
+                resumes = new AtomicInteger();
+        DisplayUpdateQueue queue = new DisplayUpdateQueue(graph, pauses::incrementAndGet, resumes::incrementAndGet);
+
+        queue.addNode("A");
+        queue.setNodeAttribute("A", "x", 1);
+        queue.setNodeAttribute("A", "x", 2);
+        queue.applyPending(0);
+        Assert.assertEquals(2, (int) graph.getNode("A").getAttribute("x", Integer.class));
+
+        // Updates queued before a node is removed and added again must not swallow later ones.
+        queue.setNodeAttribute("A", "x", 3);
+        queue.removeNode("A");
+        queue.addNode("A");
+        queue.setNodeAttribute("A", "x", 4);
+        queue.applyPending(0);
+        Assert.assertEquals(4, (int) graph.getNode("A").getAttribute("x", Integer.class));
+
+        queue.setNodeAttribute("A", "y", 1);
+        queue.removeNode("A");
+        queue.addNode("A");
+        queue.applyPending(0);
+        Assert.assertFalse(graph.getNode("A").hasAttribute("y"));
+
+        queue.setNodeAttribute("A", "x", 5);
+        queue.removeNode("A");
+        queue.applyPending(0);
+        Assert.assertNull(graph.getNode("A"));
+
+        for (int i = 0; i < 500; i++) {
+            queue.addNode("N" + i);
+        }
+        queue.applyPending(1000);
+        Assert.assertEquals(1, pauses.get());
+        Assert.assertEquals(500, graph.getNodeCount());
+
+        queue.addNode("B");
+        queue.applyPending(1200);
+        Assert.assertEquals(0, resumes.get());
+        queue.applyPending(1500);
+        Assert.assertEquals(1, resumes.get());
+        Assert.assertEquals(1, pauses.get());
+    }
+
+    @Test
+    public void displayedEdgesTest() {
+        Document<String> d = genDoc("displayedEdgesTest");
+        String greenEdge = Document.getEdgeIdBetweenNodes("A", "isGreen", "B");
+
+        d.showPredicate("isGreen");
+        Assert.assertEquals(new HashSet<>(Arrays.asList(greenEdge)), d.displayedEdges);
+
+        d.unpredicate("A", "isGreen", "B");
+        Assert.assertTrue(d.displayedEdges.isEmpty());
+
+        d.predicate("A", "isGreen", "B", "");
+        d.predicate("B", "isGreen", "C", "");
+        Assert.assertEquals(2, d.displayedEdges.size());
+
+        d.removeNode("C");
+        Assert.assertEquals(new HashSet<>(Arrays.asList(greenEdge)), d.displayedEdges);
+
+        d.hidePredicate("isGreen");
+        Assert.assertTrue(d.displayedEdges.isEmpty());
+    }
 }